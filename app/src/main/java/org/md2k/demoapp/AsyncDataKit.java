@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Android imports
+import android.os.Handler;
+import android.os.Looper;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.DataKitAPI;
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeLong;
+import org.md2k.datakitapi.datatype.RowObject;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.messagehandler.OnConnectionListener;
+import org.md2k.datakitapi.messagehandler.OnReceiveListener;
+import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+
+/**
+ * Runs <code>DataKitAPI</code> calls off the main thread. Calls that change DataKit state
+ * (connect, register, subscribe and their counterparts) run in order on a single writer thread.
+ * Lookups and queries run on a separate pool of reader threads so that a long query never delays
+ * a registration. Every call returns a <code>Future</code> and, if a <code>Callback</code> is
+ * given, reports its result on the main thread.
+ */
+public class AsyncDataKit {
+    private static final int READ_THREADS = 2;
+
+    /**
+     * A blocking DataKit call.
+     * @param <T> Result type.
+     */
+    public interface Operation<T> {
+        T call() throws DataKitException;
+    }
+
+    /**
+     * Receives the result of an <code>Operation</code> on the main thread. An unchecked exception
+     * thrown by the operation is passed to <code>onFailure()</code> as the cause of a
+     * <code>DataKitException</code>.
+     * @param <T> Result type.
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+        void onFailure(DataKitException e);
+    }
+
+    private final DataKitAPI datakitapi;
+    private final ExecutorService writeExecutor;
+    private final ExecutorService readExecutor;
+    private final Handler mainHandler;
+
+    /**
+     * Constructor
+     * @param datakitapi DataKit instance the calls are made on.
+     */
+    public AsyncDataKit(DataKitAPI datakitapi) {
+        this.datakitapi = datakitapi;
+        writeExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("DataKit-write"));
+        readExecutor = Executors.newFixedThreadPool(READ_THREADS, new NamedThreadFactory("DataKit-read"));
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public DataKitAPI getDataKitAPI() {
+        return datakitapi;
+    }
+
+    /**
+     * Only reads a local flag, so it is safe to call from any thread.
+     * @return Whether DataKit is connected.
+     */
+    public boolean isConnected() {
+        return datakitapi.isConnected();
+    }
+
+    /**
+     * Runs an operation on the writer thread, after every write submitted before it.
+     * @param operation Operation to run.
+     * @param callback Receives the result on the main thread. May be null.
+     * @return Future of the result.
+     */
+    public <T> Future<T> write(Operation<T> operation, Callback<T> callback) {
+        return writeExecutor.submit(wrap(operation, callback));
+    }
+
+    /**
+     * Runs an operation on a reader thread.
+     * @param operation Operation to run.
+     * @param callback Receives the result on the main thread. May be null.
+     * @return Future of the result.
+     */
+    public <T> Future<T> read(Operation<T> operation, Callback<T> callback) {
+        return readExecutor.submit(wrap(operation, callback));
+    }
+
+    /**
+     * Reports a result that is already known, such as a cached lookup, the same way as an operation
+     * that ran in the background.
+     * @param result The result.
+     * @param callback Receives the result on the main thread. May be null.
+     * @return Completed future of the result.
+     */
+    public <T> Future<T> completed(final T result, Callback<T> callback) {
+        FutureTask<T> future = new FutureTask<>(wrap(new Operation<T>() {
+            @Override
+            public T call() {
+                return result;
+            }
+        }, callback));
+        future.run();
+        return future;
+    }
+
+    /**
+     * Connects to DataKit. <code>listener</code> is called on the main thread.
+     */
+    public Future<Void> connect(final OnConnectionListener listener, Callback<Void> callback) {
+        return write(new Operation<Void>() {
+            @Override
+            public Void call() throws DataKitException {
+                datakitapi.connect(new OnConnectionListener() {
+                    @Override
+                    public void onConnected() {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onConnected();
+                            }
+                        });
+                    }
+                });
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Void> disconnect(Callback<Void> callback) {
+        return write(new Operation<Void>() {
+            @Override
+            public Void call() {
+                datakitapi.disconnect();
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<DataSourceClient> register(final DataSourceBuilder dataSourceBuilder,
+                                             Callback<DataSourceClient> callback) {
+        return write(new Operation<DataSourceClient>() {
+            @Override
+            public DataSourceClient call() throws DataKitException {
+                return datakitapi.register(dataSourceBuilder);
+            }
+        }, callback);
+    }
+
+    public Future<Void> unregister(final DataSourceClient dataSourceClient, Callback<Void> callback) {
+        return write(new Operation<Void>() {
+            @Override
+            public Void call() throws DataKitException {
+                datakitapi.unregister(dataSourceClient);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Void> subscribe(final DataSourceClient dataSourceClient,
+                                  final OnReceiveListener listener, Callback<Void> callback) {
+        return write(new Operation<Void>() {
+            @Override
+            public Void call() throws DataKitException {
+                datakitapi.subscribe(dataSourceClient, listener);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Void> unsubscribe(final DataSourceClient dataSourceClient, Callback<Void> callback) {
+        return write(new Operation<Void>() {
+            @Override
+            public Void call() throws DataKitException {
+                datakitapi.unsubscribe(dataSourceClient);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<ArrayList<DataSourceClient>> find(final DataSourceBuilder dataSourceBuilder,
+                                                    Callback<ArrayList<DataSourceClient>> callback) {
+        return read(new Operation<ArrayList<DataSourceClient>>() {
+            @Override
+            public ArrayList<DataSourceClient> call() throws DataKitException {
+                return datakitapi.find(dataSourceBuilder);
+            }
+        }, callback);
+    }
+
+    public Future<ArrayList<DataType>> query(final DataSourceClient dataSourceClient, final int lastN,
+                                             Callback<ArrayList<DataType>> callback) {
+        return read(new Operation<ArrayList<DataType>>() {
+            @Override
+            public ArrayList<DataType> call() throws DataKitException {
+                return datakitapi.query(dataSourceClient, lastN);
+            }
+        }, callback);
+    }
+
+    public Future<ArrayList<DataType>> query(final DataSourceClient dataSourceClient, final long startTimestamp,
+                                             final long endTimestamp, Callback<ArrayList<DataType>> callback) {
+        return read(new Operation<ArrayList<DataType>>() {
+            @Override
+            public ArrayList<DataType> call() throws DataKitException {
+                return datakitapi.query(dataSourceClient, startTimestamp, endTimestamp);
+            }
+        }, callback);
+    }
+
+    /**
+     * Opens a cursor over <code>DataKitAPI.queryFromPrimaryKey()</code>. Pages are fetched on the
+     * reader threads while earlier pages are being read.
+     * @param dataSourceClient Data source to read.
+     * @param lastSyncedKey Rows up to and including this primary key are skipped.
+     * @param pageSize Number of rows per page.
+     * @param maxPages Number of pages held in memory, at least two.
+     * @return The cursor. It must be read off the main thread and closed when no longer needed.
+     */
+    public QueryCursor<RowObject> openCursor(final DataSourceClient dataSourceClient, long lastSyncedKey,
+                                             int pageSize, int maxPages) {
+        return new QueryCursor<>(new QueryCursor.PageSource<RowObject>() {
+            @Override
+            public ArrayList<RowObject> fetch(long afterKey, int limit) throws DataKitException {
+                return datakitapi.queryFromPrimaryKey(dataSourceClient, afterKey, limit);
+            }
+
+            @Override
+            public long keyOf(RowObject row) {
+                return row.rowKey;
+            }
+        }, lastSyncedKey, pageSize, maxPages, readExecutor);
+    }
+
+    public Future<DataTypeLong> querySize(Callback<DataTypeLong> callback) {
+        return read(new Operation<DataTypeLong>() {
+            @Override
+            public DataTypeLong call() throws DataKitException {
+                return datakitapi.querySize();
+            }
+        }, callback);
+    }
+
+    /**
+     * Lets queued operations finish and stops the threads.
+     */
+    public void shutdown() {
+        writeExecutor.shutdown();
+        readExecutor.shutdown();
+    }
+
+    private <T> Callable<T> wrap(final Operation<T> operation, final Callback<T> callback) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    final T result = operation.call();
+                    if (callback != null)
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onSuccess(result);
+                            }
+                        });
+                    return result;
+                } catch (DataKitException e) {
+                    postFailure(callback, e);
+                    throw e;
+                } catch (RuntimeException e) {
+                    DataKitException failure = new DataKitException(e.toString());
+                    failure.initCause(e);
+                    postFailure(callback, failure);
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private <T> void postFailure(final Callback<T> callback, final DataKitException e) {
+        if (callback != null)
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFailure(e);
+                }
+            });
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, name + "-" + count.incrementAndGet());
+        }
+    }
+}
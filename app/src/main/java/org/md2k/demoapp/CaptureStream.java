@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.io.IOException;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.DataKitAPI;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+
+/**
+ * Processing chain of one sensor stream. Samples are scaled, reduced to the stream's rate by a
+ * <code>Decimator</code> and queued on the stream's own <code>InsertPipeline</code>, so a slow
+ * insert on one stream never delays another. <code>process()</code> must always be called from
+ * the same thread.
+ */
+public class CaptureStream implements SampleSource.Listener {
+    private final StreamConfig config;
+    private final Decimator decimator;
+    private final PipelineMetrics metrics;
+    private volatile DataSourceClient dataSourceClient;
+    private volatile InsertPipeline pipeline;
+    private final StorageRouter router;
+    private volatile Decimator.Output preview;
+    private volatile InsertPipeline.OnReplayedListener replayedListener;
+    private volatile FeatureExtractor featureExtractor;
+    private volatile Timebase timebase;
+
+    // Pipeline settings
+    private static final int PIPELINE_CAPACITY = 1024;
+    private static final int PIPELINE_BATCH_SIZE = 50;
+    private static final long PIPELINE_BATCH_AGE = 1000; // 1 second
+    private static final double HIGH_FREQUENCY_ABOVE = 1600; // bytes per second, 50 Hz with 3 axes
+    private static final double DATABASE_BELOW = 800; // bytes per second
+    private static final long ROUTE_DWELL = 30000; // 30 seconds
+    private static final int SAMPLES_PER_BLOCK = 1000;
+    private static final long BLOCK_AGE = 5000; // 5 seconds, samples in an open block are not spooled
+
+    /**
+     * Constructor
+     * @param config Stream description.
+     */
+    public CaptureStream(StreamConfig config) {
+        this.config = config;
+        metrics = new PipelineMetrics(config.getDataSourceType());
+        router = new StorageRouter(config.getDataSourceType(), config.getDimension(),
+                HIGH_FREQUENCY_ABOVE, DATABASE_BELOW, ROUTE_DWELL);
+        decimator = new Decimator(config.getTargetRate(), config.getFilter(), decimatorOutput);
+    }
+
+    public StreamConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return Counters and histograms of the stream. They accumulate across starts and stops.
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    public DataSourceClient getDataSourceClient() {
+        return dataSourceClient;
+    }
+
+    public void setDataSourceClient(DataSourceClient dataSourceClient) {
+        this.dataSourceClient = dataSourceClient;
+    }
+
+    /**
+     * @return Current output rate in hertz.
+     */
+    public double getTargetRate() {
+        return decimator.getTargetRate();
+    }
+
+    /**
+     * Changes the rate the stream is stored at. Can be called while the stream is running.
+     * @param rate Output rate in hertz.
+     * @param filter Anti-alias filter applied before the rate is reduced.
+     */
+    public void setTargetRate(double rate, Decimator.Filter filter) {
+        decimator.configure(rate, filter);
+    }
+
+    /**
+     * @return Chooses between <code>insert()</code> and <code>insertHighFrequency()</code>. It keeps
+     * its mode and segment history across starts and stops.
+     */
+    public StorageRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Computes features from the stream's samples while it is running. Must be set before the
+     * stream starts, since the sensor is sampled fast enough for both the stream and the extractor.
+     * @param featureExtractor Extractor, or null to remove it.
+     */
+    public void setFeatureExtractor(FeatureExtractor featureExtractor) {
+        this.featureExtractor = featureExtractor;
+    }
+
+    /**
+     * @return Highest rate the stream needs from its sensor, in hertz: the output rate or the rate
+     * of the feature extractor.
+     */
+    public double getSamplingRate() {
+        FeatureExtractor extractor = featureExtractor;
+        double rate = decimator.getTargetRate();
+        return extractor == null ? rate : Math.max(rate, extractor.getRate());
+    }
+
+    /**
+     * Converts a sensor timestamp to the time stored in DataKit. Only valid while the stream is
+     * running.
+     * @param timestampNanos Time as in <code>SensorEvent.timestamp</code>.
+     * @return Milliseconds since the epoch.
+     */
+    public long toEpochMillis(long timestampNanos) {
+        return timebase.toEpochMillis(timestampNanos);
+    }
+
+    /**
+     * Receives every stored sample on the processing thread. Used for live previews.
+     * @param preview Listener, or null to remove it.
+     */
+    public void setPreview(Decimator.Output preview) {
+        this.preview = preview;
+    }
+
+    /**
+     * Receives the time range of spooled samples once they have been replayed, on the pipeline's
+     * worker thread. Applies from the next <code>start()</code>.
+     * @param replayedListener Listener, or null to remove it.
+     */
+    public void setOnReplayedListener(InsertPipeline.OnReplayedListener replayedListener) {
+        this.replayedListener = replayedListener;
+    }
+
+    public boolean isRunning() {
+        return pipeline != null;
+    }
+
+    /**
+     * Creates the insert pipeline. The data source must be registered.
+     * @param datakitapi Connected DataKit instance.
+     * @param failedListener Notified when DataKit rejects a batch.
+     * @param timebase Converts sensor timestamps to epoch time.
+     * @param spool Keeps samples DataKit rejects until they can be replayed, or null. The pipeline
+     *              closes it, or this method does if the stream is already running.
+     */
+    public void start(DataKitAPI datakitapi, InsertPipeline.OnInsertFailedListener failedListener,
+                      Timebase timebase, SampleSpool spool) {
+        if (pipeline != null) {
+            closeUnused(spool);
+            return;
+        }
+        InsertPipeline.Sink target;
+        if (config.getEncoding() != null) {
+            target = new EncodedBlockSink(datakitapi, dataSourceClient, config.getDimension(),
+                    config.getEncoding(), config.getQuantum(), SAMPLES_PER_BLOCK, BLOCK_AGE);
+        } else {
+            target = new DataKitSink(datakitapi, dataSourceClient, config.getDimension(), router);
+        }
+        start(target, failedListener, timebase, spool);
+    }
+
+    /**
+     * Creates the insert pipeline with any sink, for example a local stand-in for DataKit in load
+     * tests.
+     * @param sink Destination of the batches.
+     * @param failedListener Notified when the sink rejects a batch.
+     * @param timebase Converts sample timestamps to epoch time.
+     * @param spool Keeps samples the sink rejects until they can be replayed, or null. The pipeline
+     *              closes it, or this method does if the stream is already running.
+     */
+    public void start(InsertPipeline.Sink sink, InsertPipeline.OnInsertFailedListener failedListener,
+                      Timebase timebase, SampleSpool spool) {
+        if (pipeline != null) {
+            closeUnused(spool);
+            return;
+        }
+        this.timebase = timebase;
+        decimator.reset();
+        FeatureExtractor extractor = featureExtractor;
+        if (extractor != null)
+            extractor.reset();
+        InsertPipeline created = new InsertPipeline(sink, PIPELINE_CAPACITY, PIPELINE_BATCH_SIZE,
+                PIPELINE_BATCH_AGE, InsertPipeline.BackpressurePolicy.DROP_OLDEST);
+        created.setOnInsertFailedListener(failedListener);
+        created.setOnReplayedListener(replayedListener);
+        created.setMetrics(metrics);
+        if (spool != null)
+            created.setSpool(spool);
+        pipeline = created;
+    }
+
+    private static void closeUnused(SampleSpool spool) {
+        if (spool == null)
+            return;
+        try {
+            spool.close();
+        } catch (IOException ignored) {
+            // Nothing was appended to it
+        }
+    }
+
+    /**
+     * Sends the queued samples to DataKit now. Called when a burst of batched sensor events has
+     * been processed, so the samples of the burst are inserted together while the CPU is awake.
+     */
+    public void endBurst() {
+        InsertPipeline current = pipeline;
+        if (current != null)
+            current.requestFlush();
+    }
+
+    /**
+     * Replays samples that were spooled while DataKit was unavailable.
+     */
+    public void requestReplay() {
+        InsertPipeline current = pipeline;
+        if (current != null)
+            current.requestReplay();
+    }
+
+    /**
+     * Detaches the insert pipeline. The caller must close it, which inserts the samples that are
+     * still queued, before the data source is unregistered.
+     * @return The pipeline, or null if the stream was not running.
+     */
+    public InsertPipeline stop() {
+        InsertPipeline current = pipeline;
+        pipeline = null;
+        return current;
+    }
+
+    /**
+     * Adds a raw sensor sample to the stream.
+     * @param timestampNanos Time the sample was taken, as in <code>SensorEvent.timestamp</code>.
+     * @param values Sensor values. Only the first <code>getDimension()</code> are used.
+     */
+    public void process(long timestampNanos, float[] values) {
+        if (pipeline == null)
+            return;
+        metrics.onReceived();
+        double scale = config.getScale();
+        int dimension = config.getDimension();
+        double x = values[0] * scale;
+        double y = dimension > 1 ? values[1] * scale : 0;
+        double z = dimension > 2 ? values[2] * scale : 0;
+        decimator.process(timestampNanos, x, y, z);
+        FeatureExtractor extractor = featureExtractor;
+        if (extractor != null)
+            extractor.process(timestampNanos, x, y, z);
+    }
+
+    /**
+     * Lets a <code>SampleSource</code> drive the stream like a sensor does.
+     */
+    @Override
+    public void onSample(long timestampNanos, float[] values) {
+        process(timestampNanos, values);
+    }
+
+    private final Decimator.Output decimatorOutput = new Decimator.Output() {
+        @Override
+        public void onSample(long timestampNanos, double x, double y, double z) {
+            InsertPipeline current = pipeline;
+            if (current == null)
+                return;
+            current.offer(toEpochMillis(timestampNanos), x, y, z);
+            Decimator.Output listener = preview;
+            if (listener != null)
+                listener.onSample(timestampNanos, x, y, z);
+        }
+    };
+}
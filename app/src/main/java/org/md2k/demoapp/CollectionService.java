@@ -0,0 +1,800 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.md2k.demoapp;
+
+// Android imports
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.DataKitAPI;
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.messagehandler.OnConnectionListener;
+import org.md2k.datakitapi.messagehandler.OnReceiveListener;
+import org.md2k.datakitapi.source.application.Application;
+import org.md2k.datakitapi.source.application.ApplicationBuilder;
+import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+import org.md2k.datakitapi.source.datasource.DataSourceType;
+import org.md2k.datakitapi.time.DateTime;
+
+/**
+ * Owns the DataKit connection, the registered data sources, the sensor listeners and the insert
+ * pipelines, so that data collection does not depend on the lifecycle of <code>MainActivity</code>.
+ * The activity binds to this service and only shows its state and live previews. Re-creating the
+ * activity, for example on a configuration change, does not connect, register or find again.
+ * <p>
+ * The service starts itself when DataKit is connected, so it outlives the activity, and runs in
+ * the foreground with a notification while data is collected, so Android does not stop it while
+ * the user is in another application. It stops itself when DataKit is disconnected.
+ * </p>
+ * <p>
+ * All public methods must be called on the main thread. Callbacks are made on the main thread,
+ * except <code>PreviewListener</code>.
+ * </p>
+ */
+public class CollectionService extends Service {
+    public static final double GRAVITY = 9.81;
+
+    /**
+     * Sensors captured by this application. Each sensor is stored as its own data source, at its own
+     * rate, with its own insert pipeline. Sensors are sampled faster than the rate the data is stored
+     * at and <code>Decimator</code> filters the samples and reduces them to exactly that rate, using
+     * the time the sensor took each sample. Simply dropping samples that arrive too early would alias
+     * the signal and make the stored rate depend on how regularly Android delivers events.
+     * <p>
+     * An appropriate <code>DataType</code> for the sensor should be used. For example, motion sensors
+     * should use <code>DataTypeDoubleArray</code> because they return an array of double values. The
+     * proximity sensor and other environmental sensors could use <code>DataTypeDouble</code>, as they
+     * return an array with only one value. This application stores every stream as a
+     * <code>DataTypeDoubleArray</code> whose length is the stream's dimension. Long high rate captures
+     * can instead pass a <code>SampleBlockEncoder.Mode</code>, which stores the stream as
+     * <code>DataTypeByteArray</code> blocks under <code>EncodedBlockSink.DATA_SOURCE_ID</code>.
+     * Encoding is opt-in and none of the streams below use it, because the queries and views of this
+     * application read <code>DataTypeDoubleArray</code> samples and do not decode blocks.
+     * </p>
+     */
+    private static final StreamConfig[] STREAM_CONFIGS = {
+            new StreamConfig(Sensor.TYPE_ACCELEROMETER, DataSourceType.ACCELEROMETER, 3, 1 / GRAVITY,
+                    10, Decimator.Filter.AVERAGE),
+            new StreamConfig(Sensor.TYPE_GYROSCOPE, DataSourceType.GYROSCOPE, 3, 1,
+                    10, Decimator.Filter.AVERAGE),
+            new StreamConfig(Sensor.TYPE_MAGNETIC_FIELD, DataSourceType.COMPASS, 3, 1,
+                    10, Decimator.Filter.AVERAGE),
+            new StreamConfig(Sensor.TYPE_PRESSURE, DataSourceType.PRESSURE, 1, 1,
+                    1, Decimator.Filter.AVERAGE)
+    };
+
+    /**
+     * Sensors with a hardware FIFO may hold events this long, so the processor can sleep between
+     * bursts. Live displays then update in bursts as well.
+     */
+    private static final int MAX_REPORT_LATENCY_US = 5000000; // 5 seconds
+
+    /**
+     * Features of the accelerometer are computed at 50 Hz over windows of 128 samples, about 2.5
+     * seconds, and stored once per second. The bands separate posture changes, walking and
+     * running, and vibration.
+     */
+    private static final double FEATURE_RATE = 50;
+    private static final int FEATURE_WINDOW = 128;
+    private static final int FEATURE_HOP = 50;
+    private static final double[][] FEATURE_BANDS = {{0.5, 3}, {3, 8}, {8, 20}};
+
+    /**
+     * Time windows are queried through one-minute chunks that are cached between queries. Samples
+     * may arrive up to 6 seconds late, from the sensor FIFO and the insert batches.
+     */
+    private static final long QUERY_CHUNK = 60000; // 1 minute
+    private static final long QUERY_SETTLE = 10000; // 10 seconds
+    private static final int QUERY_CACHE_SAMPLES = 200000;
+    private static final int QUERY_THREADS = 3;
+
+    private static final int SPOOL_CAPACITY = 131072; // samples per stream, 4 MB
+    private static final long TIMEBASE_INTERVAL = 60000; // 1 minute
+    private static final long METRICS_INTERVAL = 60000; // 1 minute
+    private static final int SUBSCRIPTION_RING = 1024;
+    private static final int NOTIFICATION_ID = 1;
+    private static final String NOTIFICATION_CHANNEL = "collection";
+
+    /**
+     * Receives messages about the state of the collection on the main thread.
+     */
+    public interface StatusListener {
+        void onStatus(String message);
+    }
+
+    /**
+     * Receives the newest accelerometer sample, from the subscription or, while it is stored by
+     * <code>insertHighFrequency()</code>, from the capture thread.
+     */
+    public interface PreviewListener {
+        void onPreview(double x, double y, double z);
+    }
+
+    /**
+     * Gives bound clients in this process the service itself.
+     */
+    public class LocalBinder extends Binder {
+        public CollectionService getService() {
+            return CollectionService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private Handler mainHandler;
+
+    // Variables for sensor data
+    private SensorCapture sensorCapture;
+    private Timebase timebase;
+    private StorageRouter previewRouter;
+
+    // Variables for DataKit objects
+    private DataKitAPI datakitapi;
+    private AsyncDataKit asyncDataKit;
+    private DataSourceRegistry dataSourceRegistry;
+    private boolean isRegistered = false;
+    private DataSourceClient subDataSourceClient = null;
+    private MetricsReporter metricsReporter;
+    private FeaturePublisher featurePublisher = null;
+    private TimeRangeQueryService timeRangeQueryService;
+    private SubscriptionHub<DataType> subscriptionHub;
+
+    // Clients, which come and go with the activity
+    private volatile StatusListener statusListener;
+    private volatile PreviewListener previewListener;
+
+    /**
+     * Sets up one <code>CaptureStream</code> per available sensor and gets the DataKit instance.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mainHandler = new Handler(Looper.getMainLooper());
+        timebase = new Timebase(sensorClock, TIMEBASE_INTERVAL);
+
+        // Sets the desired sensors
+        sensorCapture = new SensorCapture((SensorManager) getSystemService(SENSOR_SERVICE));
+        sensorCapture.setMaxReportLatencyUs(MAX_REPORT_LATENCY_US);
+        for (StreamConfig config : STREAM_CONFIGS) {
+            CaptureStream stream = sensorCapture.addStream(config);
+            if (stream != null) {
+                stream.getRouter().setOnRouteChangedListener(routeChangedListener);
+                stream.setOnReplayedListener(replayedListener(config.getDataSourceType()));
+                openSegments(stream.getRouter());
+            }
+        }
+        CaptureStream accelerometer = sensorCapture.getStream(DataSourceType.ACCELEROMETER);
+        if (accelerometer != null) {
+            previewRouter = accelerometer.getRouter();
+            accelerometer.setPreview(previewOutput);
+        }
+
+        datakitapi = DataKitAPI.getInstance(this);
+        asyncDataKit = new AsyncDataKit(datakitapi);
+        dataSourceRegistry = new DataSourceRegistry(asyncDataKit, buildApplication());
+        metricsReporter = new MetricsReporter(asyncDataKit, METRICS_INTERVAL);
+        timeRangeQueryService = new TimeRangeQueryService(new TimeRangeQueryService.ChunkSource() {
+            @Override
+            public ArrayList<DataType> fetch(String type, long startTimestamp, long endTimestamp)
+                    throws DataKitException {
+                // Samples stored by insertHighFrequency() are not in the database DataKit queries
+                CaptureStream stream = sensorCapture.getStream(type);
+                if (stream != null && stream.getRouter().getRoute(startTimestamp, endTimestamp)
+                        == StorageRouter.Route.HIGH_FREQUENCY)
+                    return new ArrayList<>();
+                DataSourceClient dataSourceClient = dataSourceRegistry.resolveNow(type);
+                if (dataSourceClient == null)
+                    throw new DataKitException("data source " + type + " is not registered");
+                return datakitapi.query(dataSourceClient, startTimestamp, endTimestamp);
+            }
+        }, QUERY_CHUNK, QUERY_SETTLE, QUERY_CACHE_SAMPLES, QUERY_THREADS);
+        if (accelerometer != null) {
+            featurePublisher = new FeaturePublisher(asyncDataKit, accelerometer);
+            accelerometer.setFeatureExtractor(new FeatureExtractor(FEATURE_RATE, FEATURE_WINDOW,
+                    FEATURE_HOP, FEATURE_BANDS, featurePublisher));
+        }
+        subscriptionHub = new SubscriptionHub<>(SUBSCRIPTION_RING);
+        subscriptionHub.subscribe("Subscriber-UI", SubscriptionHub.Policy.CONFLATE,
+                new SubscriptionHub.Consumer<DataType>() {
+            @Override
+            public void onReceived(DataType dataType) {
+                PreviewListener listener = previewListener;
+                if (listener != null) {
+                    double[] sample = ((DataTypeDoubleArray) dataType).getSample();
+                    listener.onPreview(sample[0], sample[1], sample[2]);
+                }
+            }
+        });
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            createNotificationChannel();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    /**
+     * The service is only started by itself. It is not restarted after Android kills the process,
+     * because the DataKit connection would have to be made again anyway.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Stops collecting, inserting the samples that are still queued, and lets DataKit calls that
+     * are still queued finish in the background.
+     */
+    @Override
+    public void onDestroy() {
+        if (sensorCapture.isCapturing())
+            stopCollection();
+        asyncDataKit.shutdown();
+        timeRangeQueryService.shutdown();
+        subscriptionHub.close();
+        super.onDestroy();
+    }
+
+    public void setStatusListener(StatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    public void setPreviewListener(PreviewListener previewListener) {
+        this.previewListener = previewListener;
+    }
+
+    public AsyncDataKit getAsyncDataKit() {
+        return asyncDataKit;
+    }
+
+    public DataSourceRegistry getDataSourceRegistry() {
+        return dataSourceRegistry;
+    }
+
+    public TimeRangeQueryService getTimeRangeQueryService() {
+        return timeRangeQueryService;
+    }
+
+    public SensorCapture getSensorCapture() {
+        return sensorCapture;
+    }
+
+    public boolean isConnected() {
+        return asyncDataKit.isConnected();
+    }
+
+    public boolean isRegistered() {
+        return isRegistered;
+    }
+
+    public boolean isSubscribed() {
+        return subDataSourceClient != null;
+    }
+
+    public boolean isCollecting() {
+        return sensorCapture.isCapturing();
+    }
+
+    /**
+     * Builds a new application object. This object represents this application and helps
+     * identify data within the database. It is built once, for <code>DataSourceRegistry</code>.
+     * @return Application datatype
+     */
+    public Application buildApplication() {
+        return new ApplicationBuilder().setId(getPackageName()).build();
+    }
+
+    /**
+     * Builds a data source object representing the sensor and application creating the data source.
+     * Any available sensor, hardware or software based, can be used.
+     * @param type Data source type, such as <code>DataSourceType.ACCELEROMETER</code>.
+     * @param application Application object representing this application.
+     * @return A data source builder
+     */
+    public DataSourceBuilder buildDataSource(String type, Application application) {
+        return new DataSourceBuilder().setType(type).setApplication(application);
+    }
+
+    /**
+     * Builds a data source object representing the sensor. In this application this is only used for
+     * registering the data source. It could be used to find all data sources of the set type independent
+     * from the application.
+     * @param type Data source type, such as <code>DataSourceType.ACCELEROMETER</code>.
+     * @return A data source builder
+     */
+    public DataSourceBuilder buildDataSource(String type) {
+        return new DataSourceBuilder().setType(type);
+    }
+
+    /**
+     * Builds a data source object for registering a captured stream. Streams stored as encoded
+     * blocks get their own id, so they are not mistaken for streams of <code>DataTypeDoubleArray</code>.
+     * @param config Stream description.
+     * @return A data source builder
+     */
+    public DataSourceBuilder buildDataSource(StreamConfig config) {
+        DataSourceBuilder builder = buildDataSource(config.getDataSourceType());
+        if (config.getEncoding() != null)
+            builder = builder.setId(EncodedBlockSink.DATA_SOURCE_ID);
+        return builder;
+    }
+
+    /**
+     * Changes the rate at which a sensor is stored. Can be called while data is being inserted.
+     * @param type Data source type of the stream.
+     * @param rate Output rate in hertz.
+     * @param filter Anti-alias filter applied before the rate is reduced.
+     */
+    public void setTargetRate(String type, double rate, Decimator.Filter filter) {
+        CaptureStream stream = sensorCapture.getStream(type);
+        if (stream != null)
+            stream.setTargetRate(rate, filter);
+    }
+
+    /**
+     * Each stream's <code>StorageRouter</code> chooses between <code>insert()</code> and
+     * <code>insertHighFrequency()</code> from the stream's measured rate. Forcing every stream to use
+     * <code>insertHighFrequency()</code> is not necessary in a typical application but demonstrates
+     * the difference between the two insert methods.
+     * @param forced Whether every stream uses <code>insertHighFrequency()</code>.
+     */
+    public void setHighFrequencyForced(boolean forced) {
+        StorageRouter.Mode mode = forced ? StorageRouter.Mode.HIGH_FREQUENCY : StorageRouter.Mode.AUTO;
+        for (CaptureStream stream : sensorCapture.getStreams())
+            stream.getRouter().setMode(mode);
+    }
+
+    /**
+     * Connects to DataKit and starts this service, so that it stays running when the activity is
+     * gone. When DataKit is connected again, samples spooled while it was unavailable are replayed.
+     * @param callback Receives success once DataKit is connected, or the failure to connect.
+     */
+    public void connect(final AsyncDataKit.Callback<Void> callback) {
+        startService(new Intent(this, CollectionService.class));
+        asyncDataKit.connect(new OnConnectionListener() {
+            @Override
+            public void onConnected() {
+                for (CaptureStream stream : sensorCapture.getStreams())
+                    stream.requestReplay();
+                // replayed samples land in chunks that may already be cached
+                timeRangeQueryService.clear();
+                callback.onSuccess(null);
+            }
+        }, new AsyncDataKit.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {}
+
+            @Override
+            public void onFailure(DataKitException e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Before DataKit is disconnected, all data sources must be unsubscribed and unregistered.
+     * Exception checking is not required when calling <code>DataKitAPI.disconnect()</code>. The
+     * writer thread of <code>AsyncDataKit</code> runs these calls in the order they are made. The
+     * service stops once the activity is no longer bound to it.
+     * @param callback Receives the result of each unregister call. May be null.
+     */
+    public void disconnect(AsyncDataKit.Callback<Void> callback) {
+        unregister(callback);
+        asyncDataKit.disconnect(null);
+        dataSourceRegistry.clear();
+        timeRangeQueryService.clear();
+        stopSelf();
+    }
+
+    /**
+     * Registers the data sources with DataKit. DataKit can not receive data from a data source until
+     * that data source is registered. Each captured sensor is a separate data source.
+     * @param callback Receives the client of each data source. May be null.
+     */
+    public void register(final AsyncDataKit.Callback<DataSourceClient> callback) {
+        for (final CaptureStream stream : sensorCapture.getStreams()) {
+            asyncDataKit.register(buildDataSource(stream.getConfig()), new AsyncDataKit.Callback<DataSourceClient>() {
+                @Override
+                public void onSuccess(DataSourceClient result) {
+                    stream.setDataSourceClient(result);
+                    dataSourceRegistry.put(stream.getConfig().getDataSourceType(), result);
+                    isRegistered = true;
+                    if (callback != null)
+                        callback.onSuccess(result);
+                }
+
+                @Override
+                public void onFailure(DataKitException e) {
+                    if (callback != null)
+                        callback.onFailure(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stopping the collection stops the data flow. Unsubscibing the data source removes any
+     * remaining callbacks. Then unregistering the data sources from DataKit can be done. It is
+     * possible to unregister a subset of registered data sources, but
+     * <code>DataKitAPI.unregister()</code> only takes one <code>DataSourceClient</code> as a
+     * parameter so the method is called individually for each data source.
+     * @param callback Receives the result of each unregister call. May be null.
+     */
+    public void unregister(AsyncDataKit.Callback<Void> callback) {
+        stopCollection();
+        unsubscribe(null);
+        if (!isRegistered)
+            return;
+        for (CaptureStream stream : sensorCapture.getStreams()) {
+            DataSourceClient dataSourceClient = stream.getDataSourceClient();
+            if (dataSourceClient == null)
+                continue;
+            asyncDataKit.unregister(dataSourceClient, callback);
+            stream.setDataSourceClient(null);
+            dataSourceRegistry.remove(stream.getConfig().getDataSourceType());
+        }
+        isRegistered = false;
+    }
+
+    /**
+     * Subscribing a data source registers a callback interface that returns the data received by
+     * the database. This application subscribes to the accelerometer. Its <code>DataSourceClient</code>
+     * comes from <code>DataSourceRegistry</code>, which only calls <code>DataKitAPI.find()</code> if the
+     * data source was not registered or found before.
+     * @param callback Receives success once subscribed, or the failure. A data source that is not
+     *                 registered is reported as a failure.
+     */
+    public void subscribe(final AsyncDataKit.Callback<Void> callback) {
+        dataSourceRegistry.resolve(DataSourceType.ACCELEROMETER, new AsyncDataKit.Callback<DataSourceClient>() {
+            @Override
+            public void onSuccess(DataSourceClient dataSourceClient) {
+                if (dataSourceClient == null) {
+                    callback.onFailure(new DataKitException(getString(R.string.errorNotRegistered)));
+                    return;
+                }
+                subDataSourceClient = dataSourceClient;
+                asyncDataKit.subscribe(subDataSourceClient, subscribeListener, new AsyncDataKit.Callback<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                        callback.onSuccess(result);
+                    }
+
+                    @Override
+                    public void onFailure(DataKitException e) {
+                        subDataSourceClient = null;
+                        callback.onFailure(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(DataKitException e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * <code>OnReceiveListener</code> used for subscription. It only publishes the data to
+     * <code>SubscriptionHub</code>, so the DataKit callback never waits for a consumer. Every module
+     * that needs the subscribed data adds its own consumer to the hub instead of subscribing again.
+     * This application has one consumer, which passes the data to the <code>PreviewListener</code>.
+     */
+    private OnReceiveListener subscribeListener = new OnReceiveListener() {
+        @Override
+        public void onReceived(DataType dataType) {
+            subscriptionHub.publish(dataType);
+        }
+    };
+
+    /**
+     * Unsubscribing a data source only unregisters the callback interface. Data is still collected
+     * and inserted. Nullifying the associated <code>DataSourceClient</code> variable prevents conflicts
+     * if the data source is subscribed again.
+     * @param callback Receives the result. May be null.
+     */
+    public void unsubscribe(AsyncDataKit.Callback<Void> callback) {
+        if (subDataSourceClient == null)
+            return;
+        asyncDataKit.unsubscribe(subDataSourceClient, callback);
+        subDataSourceClient = null;
+    }
+
+    /**
+     * Starts the insert pipelines, the metrics and feature data sources and registers the sensor
+     * listeners. All data collection occurs in <code>SensorCapture</code>, on its own thread. The
+     * service moves to the foreground, so collection goes on while the activity is gone.
+     * <p>
+     * The pipelines and sensors are started on the writer thread of <code>AsyncDataKit</code>, so
+     * they start after the pipelines of an earlier collection have been closed. Until then those
+     * pipelines still have the spool files mapped.
+     * </p>
+     * @param callback Receives whether collection started. It does not if no sensor could be
+     *                 registered.
+     */
+    public void startCollection(final AsyncDataKit.Callback<Boolean> callback) {
+        asyncDataKit.write(new AsyncDataKit.Operation<Boolean>() {
+            @Override
+            public Boolean call() {
+                startInsertPipeline();
+                if (sensorCapture.start())
+                    return true;
+                closePipelines(detachPipelines());
+                return false;
+            }
+        }, new AsyncDataKit.Callback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean started) {
+                if (started) {
+                    metricsReporter.start(sensorCapture.getStreams());
+                    if (featurePublisher != null)
+                        featurePublisher.start();
+                    startService(new Intent(CollectionService.this, CollectionService.class));
+                    startForeground(NOTIFICATION_ID, buildNotification());
+                }
+                callback.onSuccess(started);
+            }
+
+            @Override
+            public void onFailure(DataKitException e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Unregisters the sensor listeners, stops the insert pipelines and leaves the foreground.
+     * <p>
+     * Stopping the sensors waits for their FIFOs to be flushed and for the capture thread to end,
+     * and closing a pipeline inserts the samples that are still queued, so both run on the writer
+     * thread of <code>AsyncDataKit</code> instead of blocking the main thread. The pipelines are
+     * only detached once the capture thread has processed its last event, and they are closed
+     * ahead of any unregister call made after this method.
+     * </p>
+     */
+    public void stopCollection() {
+        asyncDataKit.write(new AsyncDataKit.Operation<Void>() {
+            @Override
+            public Void call() {
+                sensorCapture.stop();
+                closePipelines(detachPipelines());
+                return null;
+            }
+        }, null);
+        metricsReporter.stop();
+        if (featurePublisher != null)
+            featurePublisher.stop();
+        stopForeground(true);
+    }
+
+    /**
+     * Starts the pipelines that insert samples into DataKit in batches, one per registered stream.
+     * The standard insertion method adds rows to a database that is stored in
+     * <code>Android/Data/org.md2k.datakit/files/database.db</code> by default. High frequency data
+     * is stored in a gzipped csv file that is stored in <code>Android/Data/org.md2k.datakit/files/raw/</code>
+     * by default. Using <code>insertHighFrequency()</code> is recommended for sensors that produce a
+     * lot of data, such as the accelerometer, to help manage the size of the database, so each
+     * stream's <code>StorageRouter</code> switches to it when the stream's rate is high.
+     * <p>
+     * Each stream also gets a <code>SampleSpool</code> in the application's files directory. Samples
+     * DataKit rejects, for example while its service restarts, are kept there and replayed in order
+     * when DataKit is connected again. Samples left over from an earlier session are replayed when
+     * the pipeline starts.
+     * </p>
+     * <p>
+     * Must be called on the writer thread of <code>AsyncDataKit</code>, after the pipelines that
+     * used the same spool files were closed.
+     * </p>
+     * <p>
+     * Samples are stored with the time the sensor took them. <code>Timebase</code> converts
+     * <code>SensorEvent.timestamp</code> to DataKit time, so no clock is read per sample.
+     * </p>
+     */
+    private void startInsertPipeline() {
+        timebase.calibrate();
+        for (CaptureStream stream : sensorCapture.getStreams()) {
+            // A running stream keeps its pipeline, which still has the spool file mapped
+            if (stream.getDataSourceClient() != null && !stream.isRunning())
+                stream.start(datakitapi, insertFailedListener, timebase,
+                        openSpool(stream.getConfig().getDataSourceType()));
+        }
+    }
+
+    /**
+     * The clock of <code>SensorEvent.timestamp</code> and the clock DataKit stamps data with.
+     */
+    private Timebase.Clock sensorClock = new Timebase.Clock() {
+        @Override
+        public long elapsedRealtimeNanos() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return DateTime.getDateTime();
+        }
+    };
+
+    /**
+     * Keeps the storage path segments of a stream in the application's files directory, so the
+     * query path knows which time ranges of earlier sessions are only in high frequency files.
+     * @param router Router of the stream.
+     */
+    private void openSegments(StorageRouter router) {
+        try {
+            router.open(new File(getFilesDir(), "route-" + router.getDataSourceType() + ".bin"));
+        } catch (IOException e) {
+            Log.e("storage route", e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the spool of a data source type.
+     * @param type Data source type.
+     * @return The spool, or null if its file can not be mapped. Data is then not spooled.
+     */
+    private SampleSpool openSpool(String type) {
+        try {
+            return new SampleSpool(new File(getFilesDir(), "spool-" + type + ".bin"), SPOOL_CAPACITY);
+        } catch (IOException e) {
+            Log.e("spool", e.getMessage());
+            return null;
+        }
+    }
+
+    private ArrayList<InsertPipeline> detachPipelines() {
+        ArrayList<InsertPipeline> pipelines = new ArrayList<>();
+        for (CaptureStream stream : sensorCapture.getStreams()) {
+            InsertPipeline pipeline = stream.stop();
+            if (pipeline != null)
+                pipelines.add(pipeline);
+        }
+        return pipelines;
+    }
+
+    /**
+     * Inserts the samples that are still queued and closes the spools. Blocks until done.
+     */
+    private static void closePipelines(ArrayList<InsertPipeline> pipelines) {
+        for (InsertPipeline pipeline : pipelines)
+            pipeline.close();
+    }
+
+    /**
+     * Called on a pipeline's worker thread when DataKit rejects a batch.
+     */
+    private InsertPipeline.OnInsertFailedListener insertFailedListener = new InsertPipeline.OnInsertFailedListener() {
+        @Override
+        public void onInsertFailed(DataKitException e, int batchSize) {
+            Log.e("database insert", e.getMessage());
+            postStatus(e.getMessage());
+        }
+    };
+
+    /**
+     * Drops the cached query chunks that samples replayed from the spool were written into, so
+     * that queries see them even if DataKit stayed connected.
+     * @param type Data source type of the stream.
+     * @return Listener called on the pipeline's worker thread.
+     */
+    private InsertPipeline.OnReplayedListener replayedListener(final String type) {
+        return new InsertPipeline.OnReplayedListener() {
+            @Override
+            public void onReplayed(long firstTimestamp, long lastTimestamp) {
+                timeRangeQueryService.invalidate(type, firstTimestamp, lastTimestamp);
+            }
+        };
+    }
+
+    /**
+     * Called on a pipeline's worker thread when a stream changes storage path. The closed segment
+     * tells which path holds that time range.
+     */
+    private StorageRouter.OnRouteChangedListener routeChangedListener = new StorageRouter.OnRouteChangedListener() {
+        @Override
+        public void onRouteChanged(StorageRouter router, StorageRouter.Segment closed) {
+            String message = router.getDataSourceType() + " now stored by "
+                    + router.getRoute() + ", previously " + closed;
+            Log.i("storage route", message);
+            postStatus(message);
+        }
+    };
+
+    /**
+     * Shows the stored accelerometer samples while they go to <code>insertHighFrequency()</code>,
+     * which does not notify subscribers. Called on the capture thread.
+     */
+    private Decimator.Output previewOutput = new Decimator.Output() {
+        @Override
+        public void onSample(long timestampNanos, double x, double y, double z) {
+            PreviewListener listener = previewListener;
+            if (listener != null && previewRouter.getRoute() == StorageRouter.Route.HIGH_FREQUENCY)
+                listener.onPreview(x, y, z);
+        }
+    };
+
+    /**
+     * Passes a message to the <code>StatusListener</code> on the main thread, if there is one.
+     * @param message Message to pass.
+     */
+    private void postStatus(final String message) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                StatusListener listener = statusListener;
+                if (listener != null)
+                    listener.onStatus(message);
+            }
+        });
+    }
+
+    private void createNotificationChannel() {
+        NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL,
+                getString(R.string.collectionChannel), NotificationManager.IMPORTANCE_LOW);
+        channel.setDescription(getString(R.string.collectionChannelDescription));
+        ((NotificationManager) getSystemService(NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+    }
+
+    private Notification buildNotification() {
+        PendingIntent openActivity = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), 0);
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.collecting, sensorCapture.getStreams().size()))
+                .setContentIntent(openActivity)
+                .setOngoing(true)
+                .setShowWhen(false)
+                .build();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+
+/**
+ * Query result stored by column: one array of timestamps and one array per axis, instead of one
+ * <code>DataTypeDoubleArray</code> object per row. A million rows of three axes take 32 MB, and
+ * the aggregates are plain loops over primitive arrays that the JIT compiles well.
+ * <p>
+ * Rows are expected in timestamp order, as DataKit returns them. Rows are only ever appended, and
+ * the arrays grow by doubling. This class is not thread safe, but a result that is no longer
+ * appended to may be read by any number of threads.
+ * </p>
+ */
+public class ColumnarResult {
+    private static final int MIN_CAPACITY = 16;
+
+    private final int dimension;
+    private long[] timestamps;
+    private final double[][] columns;
+    private int size;
+
+    /**
+     * Constructor
+     * @param dimension Number of axes.
+     * @param capacity Number of rows to allocate room for.
+     */
+    public ColumnarResult(int dimension, int capacity) {
+        if (dimension < 0 || capacity < 0)
+            throw new IllegalArgumentException("invalid dimension " + dimension + " or capacity " + capacity);
+        this.dimension = dimension;
+        timestamps = new long[capacity];
+        columns = new double[dimension][capacity];
+    }
+
+    /**
+     * Converts a query result. Rows that are not <code>DataTypeDoubleArray</code> are skipped. The
+     * number of axes is taken from the first row, missing values of shorter rows are NaN and extra
+     * values of longer rows are dropped.
+     * @param rows Query result, may be null.
+     * @return The result by column.
+     */
+    public static ColumnarResult fromDataTypes(ArrayList<DataType> rows) {
+        if (rows == null)
+            return new ColumnarResult(0, 0);
+        int dimension = 0;
+        for (DataType row : rows)
+            if (row instanceof DataTypeDoubleArray) {
+                dimension = ((DataTypeDoubleArray) row).getSample().length;
+                break;
+            }
+        ColumnarResult result = new ColumnarResult(dimension, rows.size());
+        for (DataType row : rows)
+            if (row instanceof DataTypeDoubleArray)
+                result.add(row.getDateTime(), ((DataTypeDoubleArray) row).getSample());
+        return result;
+    }
+
+    /**
+     * Appends a row.
+     * @param timestamp Timestamp in milliseconds.
+     * @param values Value of each axis.
+     */
+    public void add(long timestamp, double[] values) {
+        ensureCapacity(size + 1);
+        timestamps[size] = timestamp;
+        for (int axis = 0; axis < dimension; axis++)
+            columns[axis][size] = axis < values.length ? values[axis] : Double.NaN;
+        size++;
+    }
+
+    /**
+     * Appends a range of rows of another result.
+     * @param source Result to copy from. Must have the same number of axes unless the range is empty.
+     * @param from First row to copy.
+     * @param to Row after the last one to copy.
+     */
+    public void addAll(ColumnarResult source, int from, int to) {
+        int n = to - from;
+        if (n <= 0)
+            return;
+        if (source.dimension != dimension)
+            throw new IllegalArgumentException("dimension " + source.dimension + " does not match " + dimension);
+        ensureCapacity(size + n);
+        System.arraycopy(source.timestamps, from, timestamps, size, n);
+        for (int axis = 0; axis < dimension; axis++)
+            System.arraycopy(source.columns[axis], from, columns[axis], size, n);
+        size += n;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public long getTimestamp(int i) {
+        checkIndex(i);
+        return timestamps[i];
+    }
+
+    public double get(int i, int axis) {
+        checkIndex(i);
+        return columns[axis][i];
+    }
+
+    /**
+     * @return Copy of the timestamps.
+     */
+    public long[] getTimestamps() {
+        return Arrays.copyOf(timestamps, size);
+    }
+
+    /**
+     * @param axis Axis index.
+     * @return Copy of the values of one axis.
+     */
+    public double[] getColumn(int axis) {
+        return Arrays.copyOf(columns[axis], size);
+    }
+
+    /**
+     * Finds the first row at or after a timestamp by binary search.
+     * @param timestamp Timestamp in milliseconds.
+     * @return Index of that row, or <code>size()</code> if every row is earlier.
+     */
+    public int indexOf(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < timestamp)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @param axis Axis index.
+     * @return Smallest value of the axis, or NaN if the result is empty.
+     */
+    public double min(int axis) {
+        if (size == 0)
+            return Double.NaN;
+        double[] column = columns[axis];
+        double min = column[0];
+        for (int i = 1; i < size; i++)
+            min = Math.min(min, column[i]);
+        return min;
+    }
+
+    /**
+     * @param axis Axis index.
+     * @return Largest value of the axis, or NaN if the result is empty.
+     */
+    public double max(int axis) {
+        if (size == 0)
+            return Double.NaN;
+        double[] column = columns[axis];
+        double max = column[0];
+        for (int i = 1; i < size; i++)
+            max = Math.max(max, column[i]);
+        return max;
+    }
+
+    /**
+     * @param axis Axis index.
+     * @return Mean value of the axis, or NaN if the result is empty.
+     */
+    public double mean(int axis) {
+        double[] column = columns[axis];
+        double sum = 0;
+        for (int i = 0; i < size; i++)
+            sum += column[i];
+        return sum / size;
+    }
+
+    /**
+     * Averages the rows over periods aligned to multiples of <code>periodMillis</code>, for example
+     * to draw a long window with one point per pixel. Periods without rows are left out.
+     * @param periodMillis Length of a period in milliseconds.
+     * @return One row per period that has rows, stamped with the start of the period.
+     */
+    public ColumnarResult resample(long periodMillis) {
+        if (periodMillis <= 0)
+            throw new IllegalArgumentException("invalid period " + periodMillis);
+        ColumnarResult result = new ColumnarResult(dimension,
+                size == 0 ? 0 : (int) Math.min(size, (timestamps[size - 1] - timestamps[0]) / periodMillis + 2));
+        double[] sums = new double[dimension];
+        int i = 0;
+        while (i < size) {
+            long offset = timestamps[i] % periodMillis;
+            long start = offset < 0 ? timestamps[i] - offset - periodMillis : timestamps[i] - offset;
+            long end = start + periodMillis;
+            int first = i;
+            while (i < size && timestamps[i] < end)
+                i++;
+            for (int axis = 0; axis < dimension; axis++) {
+                double[] column = columns[axis];
+                double sum = 0;
+                for (int k = first; k < i; k++)
+                    sum += column[k];
+                sums[axis] = sum / (i - first);
+            }
+            result.add(start, sums);
+        }
+        return result;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= timestamps.length)
+            return;
+        int grown = Math.max(Math.max(capacity, timestamps.length * 2), MIN_CAPACITY);
+        timestamps = Arrays.copyOf(timestamps, grown);
+        for (int axis = 0; axis < dimension; axis++)
+            columns[axis] = Arrays.copyOf(columns[axis], grown);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+    }
+}
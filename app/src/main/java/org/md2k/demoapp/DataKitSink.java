@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.DataKitAPI;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+
+/**
+ * <code>InsertPipeline.Sink</code> that writes batches to a registered data source through
+ * <code>DataKitAPI</code>. Each batch goes to <code>insert()</code> or
+ * <code>insertHighFrequency()</code> as chosen by the stream's <code>StorageRouter</code>. Batches
+ * replayed from the spool go through the path that was in use when they were taken.
+ */
+public class DataKitSink implements InsertPipeline.ReplayAwareSink {
+    private final DataKitAPI datakitapi;
+    private final DataSourceClient dataSourceClient;
+    private final int dimension;
+    private final StorageRouter router;
+
+    /**
+     * Constructor
+     * @param datakitapi Connected DataKit instance.
+     * @param dataSourceClient Registered data source the samples belong to.
+     * @param dimension Number of values per sample, at most three.
+     * @param router Chooses the storage path of each batch.
+     */
+    public DataKitSink(DataKitAPI datakitapi, DataSourceClient dataSourceClient, int dimension,
+                       StorageRouter router) {
+        this.datakitapi = datakitapi;
+        this.dataSourceClient = dataSourceClient;
+        this.dimension = dimension;
+        this.router = router;
+    }
+
+    /**
+     * DataKitAPI only accepts one sample per call, so the batch is written back to back from the
+     * pipeline's worker thread. This is the only place where samples become <code>DataType</code>
+     * objects.
+     * @param batch Samples to insert.
+     * @throws DataKitException When DataKit is not connected or rejects a sample. Remaining samples
+     * are not inserted. If some samples were inserted first, this is a
+     * <code>InsertPipeline.PartialInsertException</code> holding their count.
+     */
+    @Override
+    public void insert(SampleBuffer batch) throws DataKitException {
+        if (!datakitapi.isConnected())
+            throw new DataKitException("DataKit is not connected");
+        insert(batch, router.route(batch));
+    }
+
+    /**
+     * Like <code>insert()</code>, but does not let the replayed samples change the measured rate.
+     * @param batch Samples read from the spool.
+     * @throws DataKitException As <code>insert()</code>.
+     */
+    @Override
+    public void insertReplayed(SampleBuffer batch) throws DataKitException {
+        if (!datakitapi.isConnected())
+            throw new DataKitException("DataKit is not connected");
+        insert(batch, router.routeReplayed(batch));
+    }
+
+    private void insert(SampleBuffer batch, StorageRouter.Route route) throws DataKitException {
+        boolean hf = route == StorageRouter.Route.HIGH_FREQUENCY;
+        int i = 0;
+        try {
+            for (; i < batch.size(); i++) {
+                DataTypeDoubleArray data = toDataType(batch, i, dimension);
+                if (hf)
+                    datakitapi.insertHighFrequency(dataSourceClient, data);
+                else
+                    datakitapi.insert(dataSourceClient, data);
+            }
+        } catch (DataKitException e) {
+            if (i == 0)
+                throw e;
+            throw new InsertPipeline.PartialInsertException(e.getMessage(), i);
+        }
+    }
+
+    /**
+     * Converts one sample of a batch to the type DataKit stores.
+     * @param batch Batch holding the sample.
+     * @param i Index of the sample in the batch.
+     * @param dimension Number of values to keep, at most three.
+     * @return A new <code>DataTypeDoubleArray</code>.
+     */
+    public static DataTypeDoubleArray toDataType(SampleBuffer batch, int i, int dimension) {
+        double[] sample = new double[dimension];
+        sample[0] = batch.getX(i);
+        if (dimension > 1)
+            sample[1] = batch.getY(i);
+        if (dimension > 2)
+            sample[2] = batch.getZ(i);
+        return new DataTypeDoubleArray(batch.getTimestamp(i), sample);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.source.application.Application;
+import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+
+/**
+ * Remembers the <code>DataSourceClient</code> of every data source this application uses, so that
+ * <code>DataKitAPI.find()</code>, which costs an IPC round trip and a database scan in DataKit, only
+ * runs when a client is not known yet. Entries are added when a data source is registered or found
+ * and must be removed when it is unregistered or DataKit is disconnected.
+ * <p>
+ * Clients are keyed by the data source type alone. Every lookup is made within the one
+ * <code>Application</code> the registry is built with, and that application registers each type
+ * once, so the type identifies the data source.
+ * </p>
+ */
+public class DataSourceRegistry {
+    private final AsyncDataKit asyncDataKit;
+    private final Application application;
+    private final ConcurrentHashMap<String, DataSourceClient> clients = new ConcurrentHashMap<>();
+    private long generation; // guarded by clients, changed whenever clients are forgotten
+
+    /**
+     * Constructor
+     * @param asyncDataKit Used for lookups that miss the cache.
+     * @param application This application. Data sources are looked up within it.
+     */
+    public DataSourceRegistry(AsyncDataKit asyncDataKit, Application application) {
+        this.asyncDataKit = asyncDataKit;
+        this.application = application;
+    }
+
+    /**
+     * Records a client, typically the result of <code>DataKitAPI.register()</code>.
+     * @param type Data source type.
+     * @param dataSourceClient Client of that data source.
+     */
+    public void put(String type, DataSourceClient dataSourceClient) {
+        clients.put(type, dataSourceClient);
+    }
+
+    /**
+     * @param type Data source type.
+     * @return The cached client, or null if it is not known.
+     */
+    public DataSourceClient get(String type) {
+        return clients.get(type);
+    }
+
+    /**
+     * Forgets a client after its data source is unregistered.
+     * @param type Data source type.
+     */
+    public void remove(String type) {
+        synchronized (clients) {
+            clients.remove(type);
+            generation++;
+        }
+    }
+
+    /**
+     * Forgets every client. Must be called when DataKit is disconnected.
+     */
+    public void clear() {
+        synchronized (clients) {
+            clients.clear();
+            generation++;
+        }
+    }
+
+    /**
+     * Returns the client of a data source, calling <code>DataKitAPI.find()</code> on a reader thread
+     * only if it is not cached.
+     * @param type Data source type.
+     * @param callback Receives the client, or null if no such data source is registered, on the
+     *                 main thread. May be null.
+     * @return Future of the client.
+     */
+    public Future<DataSourceClient> resolve(final String type, AsyncDataKit.Callback<DataSourceClient> callback) {
+        DataSourceClient cached = clients.get(type);
+        if (cached != null)
+            return asyncDataKit.completed(cached, callback);
+        return asyncDataKit.read(new AsyncDataKit.Operation<DataSourceClient>() {
+            @Override
+            public DataSourceClient call() throws DataKitException {
+                return find(type);
+            }
+        }, callback);
+    }
+
+    /**
+     * Blocking form of <code>resolve()</code> for code that already runs off the main thread.
+     * @param type Data source type.
+     * @return The client, or null if no such data source is registered.
+     * @throws DataKitException When the lookup fails.
+     */
+    public DataSourceClient resolveNow(String type) throws DataKitException {
+        DataSourceClient cached = clients.get(type);
+        return cached != null ? cached : find(type);
+    }
+
+    private DataSourceClient find(String type) throws DataKitException {
+        long findGeneration;
+        synchronized (clients) {
+            findGeneration = generation;
+        }
+        DataSourceBuilder dataSourceBuilder = new DataSourceBuilder().setType(type).setApplication(application);
+        ArrayList<DataSourceClient> found = asyncDataKit.getDataKitAPI().find(dataSourceBuilder);
+        if (found == null || found.size() == 0)
+            return null;
+        // gets index 0 because there should only be one per type in this application
+        DataSourceClient dataSourceClient = found.get(0);
+        // Not cached if the client was forgotten while find() ran, since it may be stale by now
+        synchronized (clients) {
+            if (generation == findGeneration)
+                clients.putIfAbsent(type, dataSourceClient);
+        }
+        return dataSourceClient;
+    }
+}
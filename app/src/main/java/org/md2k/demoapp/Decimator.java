@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+/**
+ * Reduces a stream of three axis samples to a fixed output rate. Samples are placed on their
+ * <code>SensorEvent.timestamp</code>, low pass filtered to avoid aliasing and resampled onto an
+ * exact grid of <code>1 / targetRate</code> by linear interpolation, so the output rate does not
+ * depend on how regularly the sensor delivers events.
+ * <p>
+ * The target rate and filter may be changed from any thread. The change is applied on the next
+ * call to <code>process()</code>, which must always be made from the same thread.
+ * </p>
+ * <p>
+ * The input history and the FIR filter are sized from the ratio of the input rate to the output
+ * rate, so a low target rate still averages over a whole output period and gets a filter long
+ * enough for its cutoff. They only grow, when a new rate or filter first needs more room, so
+ * processing a sample does not allocate once that has happened. The history holds at most
+ * <code>MAX_HISTORY</code> samples and the filter at most <code>MAX_TAPS</code> taps, enough for
+ * 4096 and 128 input samples per output sample respectively.
+ * </p>
+ */
+public class Decimator {
+
+    /**
+     * Anti-alias filter applied before resampling.
+     */
+    public enum Filter {
+        /** No filtering, only interpolation. */
+        NONE,
+        /** Mean of the input samples in the last output period. */
+        AVERAGE,
+        /** Windowed sinc low pass filter with its cutoff at the output Nyquist frequency. */
+        FIR
+    }
+
+    /**
+     * Receives the resampled output.
+     */
+    public interface Output {
+        void onSample(long timestampNanos, double x, double y, double z);
+    }
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final int MIN_TAPS = 63;
+    private static final int MAX_TAPS = 1023;
+    private static final int MIN_HISTORY = 128;
+    private static final int MAX_HISTORY = 4096;
+    private static final double RATE_EMA_WEIGHT = 0.05;
+    private static final double REDESIGN_TOLERANCE = 0.1;
+    // Gaps longer than this many output periods and input intervals are not interpolated across
+    private static final int MAX_GAP_INTERVALS = 4;
+
+    private final Output output;
+
+    // Requested configuration, written by any thread
+    private volatile double requestedRate;
+    private volatile Filter requestedFilter;
+    private volatile boolean configChanged;
+
+    // Active configuration, only used by the processing thread
+    private long periodNanos;
+    private Filter filter;
+
+    // Input history ring, grown by growHistory()
+    private long[] historyTime = new long[MIN_HISTORY];
+    private double[] historyX = new double[MIN_HISTORY];
+    private double[] historyY = new double[MIN_HISTORY];
+    private double[] historyZ = new double[MIN_HISTORY];
+    private int historyHead;
+    private int historySize;
+    private double meanInputInterval;
+    private long gapNanos;
+
+    // Running sums of the AVERAGE window
+    private int windowSize;
+    private double sumX, sumY, sumZ;
+
+    // FIR coefficients, grown by designTaps()
+    private double[] taps = new double[MIN_TAPS];
+    private int tapCount;
+    private double designInterval;
+
+    // Last filtered point and next output time
+    private boolean hasPrevious;
+    private long previousTime;
+    private double previousX, previousY, previousZ;
+    private long nextOutput;
+
+    /**
+     * Constructor
+     * @param targetRate Output rate in hertz.
+     * @param filter Anti-alias filter.
+     * @param output Receives the output samples.
+     */
+    public Decimator(double targetRate, Filter filter, Output output) {
+        this.output = output;
+        configure(targetRate, filter);
+        applyConfig();
+    }
+
+    /**
+     * Changes the output rate and filter. Takes effect on the next input sample.
+     * @param targetRate Output rate in hertz.
+     * @param filter Anti-alias filter.
+     */
+    public void configure(double targetRate, Filter filter) {
+        if (!(targetRate > 0))
+            throw new IllegalArgumentException("invalid target rate " + targetRate);
+        requestedRate = targetRate;
+        requestedFilter = filter;
+        configChanged = true;
+    }
+
+    public double getTargetRate() {
+        return requestedRate;
+    }
+
+    public Filter getFilter() {
+        return requestedFilter;
+    }
+
+    /**
+     * Forgets all input so that the next sample starts a new stream.
+     */
+    public void reset() {
+        historySize = 0;
+        windowSize = 0;
+        sumX = sumY = sumZ = 0;
+        meanInputInterval = 0;
+        hasPrevious = false;
+        designInterval = 0;
+    }
+
+    /**
+     * Adds an input sample. Any output samples that become due are passed to the
+     * <code>Output</code> before this method returns.
+     * @param timestampNanos Time of the sample in nanoseconds, as in <code>SensorEvent.timestamp</code>.
+     * @param x First axis.
+     * @param y Second axis.
+     * @param z Third axis.
+     */
+    public void process(long timestampNanos, double x, double y, double z) {
+        if (configChanged)
+            applyConfig();
+
+        if (historySize > 0) {
+            long delta = timestampNanos - historyTime[historyIndex(historySize - 1)];
+            if (delta <= 0)
+                return; // duplicate or out of order event
+            if (meanInputInterval > 0 && delta > gapNanos)
+                reset();
+            else if (meanInputInterval == 0)
+                meanInputInterval = delta;
+            else
+                meanInputInterval += RATE_EMA_WEIGHT * (delta - meanInputInterval);
+        }
+        gapNanos = MAX_GAP_INTERVALS * Math.max(periodNanos, (long) meanInputInterval);
+        addHistory(timestampNanos, x, y, z);
+
+        switch (filter) {
+            case NONE:
+                resample(timestampNanos, x, y, z);
+                break;
+            case AVERAGE:
+                average(timestampNanos, x, y, z);
+                break;
+            case FIR:
+                fir();
+                break;
+        }
+    }
+
+    private void applyConfig() {
+        configChanged = false;
+        periodNanos = Math.max(1, Math.round(NANOS_PER_SECOND / requestedRate));
+        filter = requestedFilter;
+        reset();
+    }
+
+    private void addHistory(long time, double x, double y, double z) {
+        // The average window still covers less than an output period, so it needs every sample
+        if (historySize == historyTime.length && filter == Filter.AVERAGE && windowSize == historySize
+                && historySize < MAX_HISTORY)
+            growHistory(2 * historySize);
+        if (historySize == historyTime.length) {
+            historyHead = historyIndex(1);
+            historySize--;
+            if (windowSize > historySize)
+                windowSize = historySize;
+        }
+        int i = historyIndex(historySize);
+        historyTime[i] = time;
+        historyX[i] = x;
+        historyY[i] = y;
+        historyZ[i] = z;
+        historySize++;
+    }
+
+    private int historyIndex(int i) {
+        return (historyHead + i) % historyTime.length;
+    }
+
+    /**
+     * Moves the history to larger arrays, oldest sample first.
+     * @param capacity New number of samples, at most <code>MAX_HISTORY</code>.
+     */
+    private void growHistory(int capacity) {
+        capacity = Math.min(capacity, MAX_HISTORY);
+        if (capacity <= historyTime.length)
+            return;
+        long[] time = new long[capacity];
+        double[] x = new double[capacity];
+        double[] y = new double[capacity];
+        double[] z = new double[capacity];
+        for (int k = 0; k < historySize; k++) {
+            int i = historyIndex(k);
+            time[k] = historyTime[i];
+            x[k] = historyX[i];
+            y[k] = historyY[i];
+            z[k] = historyZ[i];
+        }
+        historyTime = time;
+        historyX = x;
+        historyY = y;
+        historyZ = z;
+        historyHead = 0;
+    }
+
+    /**
+     * Boxcar filter over the last output period, kept as running sums so each sample costs O(1).
+     */
+    private void average(long time, double x, double y, double z) {
+        sumX += x;
+        sumY += y;
+        sumZ += z;
+        windowSize++;
+        while (windowSize > 1) {
+            int oldest = historyIndex(historySize - windowSize);
+            if (time - historyTime[oldest] < periodNanos)
+                break;
+            sumX -= historyX[oldest];
+            sumY -= historyY[oldest];
+            sumZ -= historyZ[oldest];
+            windowSize--;
+        }
+        // The mean belongs to the middle of the window
+        long center = (historyTime[historyIndex(historySize - windowSize)] + time) / 2;
+        resample(center, sumX / windowSize, sumY / windowSize, sumZ / windowSize);
+    }
+
+    /**
+     * Linear phase FIR filter. The filtered value belongs to the sample in the middle of the taps.
+     */
+    private void fir() {
+        if (meanInputInterval == 0)
+            return;
+        if (designInterval == 0 || Math.abs(meanInputInterval - designInterval) > REDESIGN_TOLERANCE * designInterval)
+            designTaps();
+        if (historySize < tapCount)
+            return;
+        double fx = 0, fy = 0, fz = 0;
+        int first = historySize - tapCount;
+        for (int k = 0; k < tapCount; k++) {
+            int i = historyIndex(first + k);
+            fx += taps[k] * historyX[i];
+            fy += taps[k] * historyY[i];
+            fz += taps[k] * historyZ[i];
+        }
+        resample(historyTime[historyIndex(first + tapCount / 2)], fx, fy, fz);
+    }
+
+    /**
+     * Hamming windowed sinc with the cutoff at half the output rate, normalized to unit gain.
+     */
+    private void designTaps() {
+        designInterval = meanInputInterval;
+        double cutoff = 0.5 * designInterval / periodNanos; // cycles per input sample
+        if (cutoff >= 0.5) {
+            // Output is not slower than input, nothing to remove
+            tapCount = 1;
+            taps[0] = 1;
+            return;
+        }
+        int n = (int) Math.ceil(4 / cutoff) | 1;
+        tapCount = Math.min(MAX_TAPS, Math.max(3, n));
+        if (tapCount > taps.length)
+            taps = new double[tapCount];
+        if (tapCount > historyTime.length)
+            growHistory(Integer.highestOneBit(tapCount - 1) << 1);
+        int middle = tapCount / 2;
+        double sum = 0;
+        for (int k = 0; k < tapCount; k++) {
+            int m = k - middle;
+            double sinc = m == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * m) / (Math.PI * m);
+            double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * k / (tapCount - 1));
+            taps[k] = sinc * window;
+            sum += taps[k];
+        }
+        for (int k = 0; k < tapCount; k++)
+            taps[k] /= sum;
+    }
+
+    /**
+     * Emits every grid point between the previous filtered point and this one.
+     */
+    private void resample(long time, double x, double y, double z) {
+        if (!hasPrevious || time - previousTime > gapNanos) {
+            nextOutput = ceilToPeriod(time);
+        } else if (time > previousTime) {
+            double span = time - previousTime;
+            while (nextOutput < time) {
+                double a = (nextOutput - previousTime) / span;
+                output.onSample(nextOutput,
+                        previousX + a * (x - previousX),
+                        previousY + a * (y - previousY),
+                        previousZ + a * (z - previousZ));
+                nextOutput += periodNanos;
+            }
+        } else
+            return;
+        if (nextOutput == time) {
+            output.onSample(time, x, y, z);
+            nextOutput += periodNanos;
+        }
+        hasPrevious = true;
+        previousTime = time;
+        previousX = x;
+        previousY = y;
+        previousZ = z;
+    }
+
+    private long ceilToPeriod(long time) {
+        long remainder = time % periodNanos;
+        if (remainder < 0)
+            remainder += periodNanos;
+        return remainder == 0 ? time : time - remainder + periodNanos;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.Arrays;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.DataKitAPI;
+import org.md2k.datakitapi.datatype.DataTypeByteArray;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+
+/**
+ * <code>InsertPipeline.Sink</code> that collects samples into blocks encoded by
+ * <code>SampleBlockEncoder</code> and inserts each block as one <code>DataTypeByteArray</code>,
+ * timestamped with its first sample. The data source should be registered with
+ * <code>DATA_SOURCE_ID</code> so readers know to decode it with <code>SampleBlockDecoder</code>.
+ * <p>
+ * A block is written when it holds <code>samplesPerBlock</code> samples or spans
+ * <code>maxBlockAgeMillis</code>. Samples are only kept once the previous block has been
+ * written and, if the batch completes a block, once that block has been written too, so a
+ * rejected batch can be spooled by the pipeline without being duplicated.
+ * </p>
+ * <p>
+ * Samples waiting for their block are only held in memory. The pipeline spools them if the final
+ * flush fails, but if the process is killed they are lost, so <code>maxBlockAgeMillis</code>
+ * bounds how much data that can cost and should be kept short.
+ * </p>
+ */
+public class EncodedBlockSink implements InsertPipeline.BufferingSink {
+    public static final String DATA_SOURCE_ID = "ENCODED_BLOCK";
+
+    // Block header, quantum and first timestamp plus the worst case per sample
+    private static final int MAX_HEADER_SIZE = 21;
+    private static final int MAX_SAMPLE_SIZE = 40;
+
+    private final DataKitAPI datakitapi;
+    private final DataSourceClient dataSourceClient;
+    private final long maxBlockAgeMillis;
+    private final SampleBuffer pending;
+    private final SampleBlockEncoder encoder;
+    private byte[] block;
+    private int blockLength;
+
+    /**
+     * Constructor
+     * @param datakitapi Connected DataKit instance.
+     * @param dataSourceClient Registered data source the blocks belong to.
+     * @param dimension Number of values per sample, at most three.
+     * @param mode Value encoding.
+     * @param quantum Resolution of <code>QUANTIZED</code> values.
+     * @param samplesPerBlock Number of samples per block. Must be at least the pipeline's batch size.
+     * @param maxBlockAgeMillis Longest time span of a block.
+     */
+    public EncodedBlockSink(DataKitAPI datakitapi, DataSourceClient dataSourceClient, int dimension,
+                            SampleBlockEncoder.Mode mode, double quantum, int samplesPerBlock,
+                            long maxBlockAgeMillis) {
+        this.datakitapi = datakitapi;
+        this.dataSourceClient = dataSourceClient;
+        this.maxBlockAgeMillis = maxBlockAgeMillis;
+        pending = new SampleBuffer(samplesPerBlock);
+        encoder = new SampleBlockEncoder(MAX_HEADER_SIZE + samplesPerBlock * MAX_SAMPLE_SIZE,
+                dimension, mode, quantum, new SampleBlockEncoder.BlockListener() {
+                    @Override
+                    public void onBlock(byte[] encoded, int length, long firstTimestamp, int count) {
+                        block = encoded;
+                        blockLength = length;
+                    }
+                });
+    }
+
+    /**
+     * Writes the pending block first if the batch would overflow it, then adds the batch.
+     * @param batch Samples to insert. Must not be larger than <code>samplesPerBlock</code>.
+     * @throws DataKitException When DataKit is not connected or rejects a block. The batch is not
+     * kept in that case.
+     */
+    @Override
+    public void insert(SampleBuffer batch) throws DataKitException {
+        if (batch.isEmpty())
+            return;
+        if (!datakitapi.isConnected())
+            throw new DataKitException("DataKit is not connected");
+        if (pending.size() + batch.size() > pending.capacity())
+            flush();
+        for (int i = 0; i < batch.size(); i++)
+            pending.add(batch.getTimestamp(i), batch.getX(i), batch.getY(i), batch.getZ(i));
+        if (pending.isFull()
+                || pending.getTimestamp(pending.size() - 1) - pending.getTimestamp(0) >= maxBlockAgeMillis) {
+            try {
+                flush();
+            } catch (DataKitException e) {
+                pending.removeNewest(batch.size());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Encodes and inserts the pending samples. They are kept if the insert fails.
+     * @throws DataKitException When DataKit is not connected or rejects the block.
+     */
+    @Override
+    public void flush() throws DataKitException {
+        if (pending.isEmpty())
+            return;
+        if (!datakitapi.isConnected())
+            throw new DataKitException("DataKit is not connected");
+        encoder.add(pending);
+        encoder.flush();
+        datakitapi.insert(dataSourceClient,
+                new DataTypeByteArray(pending.getTimestamp(0), Arrays.copyOf(block, blockLength)));
+        pending.clear();
+    }
+
+    @Override
+    public SampleBuffer getPending() {
+        return pending;
+    }
+}
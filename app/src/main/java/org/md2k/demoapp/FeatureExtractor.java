@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.Arrays;
+
+/**
+ * Computes features of a three axis stream over a sliding window, so models can work from
+ * features instead of raw samples. Raw sensor samples are first reduced to <code>rate</code> by
+ * its own <code>Decimator</code>, independent of the rate the raw stream is stored at. Every
+ * <code>hop</code> samples, once the window is full, the output receives:
+ * <ul>
+ * <li>the mean and variance of x, y, z and the magnitude,</li>
+ * <li>the number of times x, y, z and the magnitude crossed their running mean,</li>
+ * <li>the power of the magnitude in each frequency band, from a sliding DFT.</li>
+ * </ul>
+ * Each sample updates the running sums and the DFT bins in place, so a sample costs the same for
+ * any window size. To bound rounding drift the sums and bins are recomputed each time the window
+ * wraps, which adds a constant amortized cost. This class does not allocate after construction
+ * and must be used from one thread.
+ */
+public class FeatureExtractor {
+    /** Index of the magnitude in the per channel getters. */
+    public static final int MAGNITUDE = 3;
+    private static final int CHANNELS = 4;
+
+    /**
+     * Receives features on the processing thread.
+     */
+    public interface Output {
+        /**
+         * @param timestampNanos Timestamp of the newest sample in the window.
+         * @param features The extractor. Its getters describe the current window.
+         */
+        void onFeatures(long timestampNanos, FeatureExtractor features);
+    }
+
+    private final double rate;
+    private final int windowSize;
+    private final int hop;
+    private final Output output;
+    private final Decimator decimator;
+
+    // Window of each channel, oldest at head once full
+    private final double[][] window;
+    private final boolean[][] aboveMean;
+    private int head;
+    private int count;
+    private int sinceOutput;
+    private final double[] sum = new double[CHANNELS];
+    private final double[] sumSquares = new double[CHANNELS];
+    private final int[] crossings = new int[CHANNELS];
+
+    // Sliding DFT of the magnitude for the bins of every band
+    private final int[] bandFirstBin;
+    private final int[] bandLastBin;
+    private final int firstBin;
+    private final double[] binReal;
+    private final double[] binImaginary;
+    private final double[] twiddleCos;
+    private final double[] twiddleSin;
+
+    /**
+     * Constructor
+     * @param rate Rate the features are computed at, in hertz.
+     * @param windowSize Number of samples in the window.
+     * @param hop Number of samples between outputs.
+     * @param bands Frequency bands in hertz, each as <code>{low, high}</code>. The edges are rounded
+     *              to DFT bins of <code>rate / windowSize</code> hertz.
+     * @param output Receives the features.
+     */
+    public FeatureExtractor(double rate, int windowSize, int hop, double[][] bands, Output output) {
+        if (windowSize < 2 || hop < 1)
+            throw new IllegalArgumentException("invalid window " + windowSize + " or hop " + hop);
+        this.rate = rate;
+        this.windowSize = windowSize;
+        this.hop = hop;
+        this.output = output;
+        window = new double[CHANNELS][windowSize];
+        aboveMean = new boolean[CHANNELS][windowSize];
+
+        bandFirstBin = new int[bands.length];
+        bandLastBin = new int[bands.length];
+        int low = windowSize / 2;
+        int high = 1;
+        for (int b = 0; b < bands.length; b++) {
+            bandFirstBin[b] = Math.max(1, (int) Math.round(bands[b][0] * windowSize / rate));
+            bandLastBin[b] = Math.min(windowSize / 2, (int) Math.round(bands[b][1] * windowSize / rate));
+            if (bandLastBin[b] < bandFirstBin[b])
+                throw new IllegalArgumentException("band " + bands[b][0] + " to " + bands[b][1]
+                        + " Hz is outside 0 to " + rate / 2 + " Hz");
+            low = Math.min(low, bandFirstBin[b]);
+            high = Math.max(high, bandLastBin[b]);
+        }
+        firstBin = bands.length == 0 ? 1 : low;
+        int bins = bands.length == 0 ? 0 : high - low + 1;
+        binReal = new double[bins];
+        binImaginary = new double[bins];
+        twiddleCos = new double[windowSize];
+        twiddleSin = new double[windowSize];
+        for (int n = 0; n < windowSize; n++) {
+            twiddleCos[n] = Math.cos(2 * Math.PI * n / windowSize);
+            twiddleSin[n] = Math.sin(2 * Math.PI * n / windowSize);
+        }
+
+        decimator = new Decimator(rate, Decimator.Filter.FIR, new Decimator.Output() {
+            @Override
+            public void onSample(long timestampNanos, double x, double y, double z) {
+                add(timestampNanos, x, y, z);
+            }
+        });
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public int getBandCount() {
+        return bandFirstBin.length;
+    }
+
+    /**
+     * Adds a raw sensor sample.
+     * @param timestampNanos Time the sample was taken, in nanoseconds.
+     */
+    public void process(long timestampNanos, double x, double y, double z) {
+        decimator.process(timestampNanos, x, y, z);
+    }
+
+    /**
+     * Empties the window, for example after the stream was stopped.
+     */
+    public void reset() {
+        decimator.reset();
+        for (int c = 0; c < CHANNELS; c++) {
+            Arrays.fill(window[c], 0);
+            sum[c] = 0;
+            sumSquares[c] = 0;
+            crossings[c] = 0;
+        }
+        Arrays.fill(binReal, 0);
+        Arrays.fill(binImaginary, 0);
+        head = 0;
+        count = 0;
+        sinceOutput = 0;
+    }
+
+    /**
+     * @param channel 0 to 2 for x, y and z, or <code>MAGNITUDE</code>.
+     */
+    public double getMean(int channel) {
+        return sum[channel] / windowSize;
+    }
+
+    /**
+     * @param channel 0 to 2 for x, y and z, or <code>MAGNITUDE</code>.
+     * @return Population variance over the window.
+     */
+    public double getVariance(int channel) {
+        double mean = sum[channel] / windowSize;
+        return Math.max(0, sumSquares[channel] / windowSize - mean * mean);
+    }
+
+    /**
+     * @param channel 0 to 2 for x, y and z, or <code>MAGNITUDE</code>.
+     * @return Number of consecutive samples in the window on opposite sides of the running mean.
+     */
+    public int getZeroCrossings(int channel) {
+        return crossings[channel];
+    }
+
+    /**
+     * @param band Index of the band, in the order given to the constructor.
+     * @return One sided power of the magnitude in the band, in squared units of the samples.
+     */
+    public double getBandEnergy(int band) {
+        double energy = 0;
+        for (int k = bandFirstBin[band]; k <= bandLastBin[band]; k++) {
+            double re = binReal[k - firstBin];
+            double im = binImaginary[k - firstBin];
+            energy += re * re + im * im;
+        }
+        return 2 * energy / ((double) windowSize * windowSize);
+    }
+
+    private void add(long timestampNanos, double x, double y, double z) {
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        // head is the oldest sample once the window is full, and the next free slot before that
+        int slot = count < windowSize ? count : head;
+        int previous = slot == 0 ? windowSize - 1 : slot - 1;
+        double oldMagnitude = window[MAGNITUDE][slot];
+        for (int c = 0; c < CHANNELS; c++) {
+            double value = c == 0 ? x : c == 1 ? y : c == 2 ? z : magnitude;
+            if (count == windowSize) {
+                double old = window[c][slot];
+                sum[c] -= old;
+                sumSquares[c] -= old * old;
+                int next = slot + 1 == windowSize ? 0 : slot + 1;
+                if (aboveMean[c][slot] != aboveMean[c][next])
+                    crossings[c]--;
+            }
+            window[c][slot] = value;
+            sum[c] += value;
+            sumSquares[c] += value * value;
+            int n = Math.min(count + 1, windowSize);
+            aboveMean[c][slot] = value * n >= sum[c];
+            if (count > 0 && aboveMean[c][slot] != aboveMean[c][previous])
+                crossings[c]++;
+        }
+        slideBins(magnitude - oldMagnitude);
+        if (count < windowSize)
+            count++;
+        head = slot + 1 == windowSize ? 0 : slot + 1;
+        if (head == 0)
+            recompute();
+        if (count == windowSize && ++sinceOutput >= hop) {
+            sinceOutput = 0;
+            output.onFeatures(timestampNanos, this);
+        }
+    }
+
+    /**
+     * Sliding DFT step: <code>X[k] = (X[k] + newest - oldest) * exp(2 pi i k / N)</code>.
+     */
+    private void slideBins(double delta) {
+        for (int i = 0; i < binReal.length; i++) {
+            int t = (firstBin + i) % windowSize;
+            double re = binReal[i] + delta;
+            double im = binImaginary[i];
+            binReal[i] = re * twiddleCos[t] - im * twiddleSin[t];
+            binImaginary[i] = re * twiddleSin[t] + im * twiddleCos[t];
+        }
+    }
+
+    /**
+     * Recomputes the sums and DFT bins from the window, which is in order when head is 0.
+     */
+    private void recompute() {
+        for (int c = 0; c < CHANNELS; c++) {
+            double s = 0;
+            double squares = 0;
+            for (int n = 0; n < windowSize; n++) {
+                double value = window[c][n];
+                s += value;
+                squares += value * value;
+            }
+            sum[c] = s;
+            sumSquares[c] = squares;
+        }
+        for (int i = 0; i < binReal.length; i++) {
+            int k = firstBin + i;
+            double re = 0;
+            double im = 0;
+            for (int n = 0; n < windowSize; n++) {
+                int t = (int) ((long) k * n % windowSize);
+                double value = window[MAGNITUDE][n];
+                re += value * twiddleCos[t];
+                im -= value * twiddleSin[t];
+            }
+            binReal[i] = re;
+            binImaginary[i] = im;
+        }
+    }
+}
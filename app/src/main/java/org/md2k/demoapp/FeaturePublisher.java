@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Android imports
+import android.util.Log;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+
+/**
+ * Stores the output of a stream's <code>FeatureExtractor</code> in DataKit. Each feature is its own
+ * data source, registered next to the raw stream with the type <code>&lt;stream type&gt;_&lt;feature&gt;</code>,
+ * for example <code>ACCELEROMETER_VARIANCE</code>:
+ * <ul>
+ * <li><code>MEAN</code>, <code>VARIANCE</code> and <code>ZERO_CROSSINGS</code> hold x, y, z and
+ * the magnitude,</li>
+ * <li><code>BAND_ENERGY</code> holds one value per band of the extractor.</li>
+ * </ul>
+ * <code>start()</code> and <code>stop()</code> must be called from the main thread. Features
+ * computed before every data source is registered are not stored.
+ */
+public class FeaturePublisher implements FeatureExtractor.Output {
+    public static final String[] FEATURES = {"MEAN", "VARIANCE", "ZERO_CROSSINGS", "BAND_ENERGY"};
+    private static final int CHANNELS = FeatureExtractor.MAGNITUDE + 1;
+
+    private final AsyncDataKit asyncDataKit;
+    private final CaptureStream stream;
+    private final DataSourceClient[] registering = new DataSourceClient[FEATURES.length];
+    private volatile DataSourceClient[] clients = null;
+    private boolean running;
+
+    /**
+     * Constructor
+     * @param asyncDataKit DataKit wrapper the features are written through.
+     * @param stream Stream whose features are published. Used for its type and clock.
+     */
+    public FeaturePublisher(AsyncDataKit asyncDataKit, CaptureStream stream) {
+        this.asyncDataKit = asyncDataKit;
+        this.stream = stream;
+    }
+
+    /**
+     * @param feature One of <code>FEATURES</code>.
+     * @return Data source type the feature is stored as.
+     */
+    public String getDataSourceType(String feature) {
+        return stream.getConfig().getDataSourceType() + "_" + feature;
+    }
+
+    /**
+     * Registers the feature data sources. Features are stored once all of them are registered.
+     */
+    public void start() {
+        if (running)
+            return;
+        running = true;
+        for (int i = 0; i < FEATURES.length; i++) {
+            final int index = i;
+            asyncDataKit.register(new DataSourceBuilder().setType(getDataSourceType(FEATURES[i])),
+                    new AsyncDataKit.Callback<DataSourceClient>() {
+                @Override
+                public void onSuccess(DataSourceClient result) {
+                    if (!running) {
+                        asyncDataKit.unregister(result, null);
+                        return;
+                    }
+                    registering[index] = result;
+                    for (DataSourceClient client : registering)
+                        if (client == null)
+                            return;
+                    clients = registering.clone();
+                }
+
+                @Override
+                public void onFailure(DataKitException e) {
+                    Log.e("features", e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops storing features and unregisters the feature data sources.
+     */
+    public void stop() {
+        if (!running)
+            return;
+        running = false;
+        clients = null;
+        for (int i = 0; i < registering.length; i++) {
+            if (registering[i] != null)
+                asyncDataKit.unregister(registering[i], null);
+            registering[i] = null;
+        }
+    }
+
+    /**
+     * Called on the capture thread. The values are copied here and inserted on the writer thread.
+     */
+    @Override
+    public void onFeatures(long timestampNanos, FeatureExtractor features) {
+        final DataSourceClient[] current = clients;
+        if (current == null)
+            return;
+        long timestamp = stream.toEpochMillis(timestampNanos);
+        double[] mean = new double[CHANNELS];
+        double[] variance = new double[CHANNELS];
+        double[] crossings = new double[CHANNELS];
+        for (int c = 0; c < CHANNELS; c++) {
+            mean[c] = features.getMean(c);
+            variance[c] = features.getVariance(c);
+            crossings[c] = features.getZeroCrossings(c);
+        }
+        double[] energy = new double[features.getBandCount()];
+        for (int b = 0; b < energy.length; b++)
+            energy[b] = features.getBandEnergy(b);
+        final DataTypeDoubleArray[] data = {
+                new DataTypeDoubleArray(timestamp, mean),
+                new DataTypeDoubleArray(timestamp, variance),
+                new DataTypeDoubleArray(timestamp, crossings),
+                new DataTypeDoubleArray(timestamp, energy)
+        };
+        asyncDataKit.write(new AsyncDataKit.Operation<Void>() {
+            @Override
+            public Void call() throws DataKitException {
+                if (!asyncDataKit.isConnected())
+                    return null;
+                for (int i = 0; i < data.length; i++)
+                    asyncDataKit.getDataKitAPI().insert(current[i], data[i]);
+                return null;
+            }
+        }, null);
+    }
+}
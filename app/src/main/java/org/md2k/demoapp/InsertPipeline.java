@@ -0,0 +1,603 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.exception.DataKitException;
+
+/**
+ * Collects samples into a bounded queue and inserts them into DataKit in batches from a dedicated
+ * worker thread. A batch is handed to the <code>Sink</code> when <code>maxBatchSize</code> samples
+ * are queued or when the oldest queued sample is older than <code>maxBatchAgeMillis</code>, whichever
+ * comes first. The thread calling <code>offer()</code> never makes a DataKit call itself.
+ * <p>
+ * Samples are kept in primitive <code>SampleBuffer</code>s that are allocated once, so offering a
+ * sample does not allocate. <code>DataType</code> objects are only created by the <code>Sink</code>.
+ * </p>
+ * <p>
+ * With a <code>SampleSpool</code> attached, batches the <code>Sink</code> rejects are kept in the
+ * spool instead of being lost. While the spool holds samples, new batches are appended behind them
+ * so the original order is kept. The spool is replayed in batches when <code>requestReplay()</code>
+ * is called, when the pipeline starts with a non-empty spool, and after a growing retry delay.
+ * </p>
+ */
+public class InsertPipeline {
+
+    /**
+     * What <code>offer()</code> does when the queue is full.
+     */
+    public enum BackpressurePolicy {
+        /** Wait until the worker thread makes room. */
+        BLOCK,
+        /** Discard the oldest queued sample to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the new sample. */
+        DROP_NEWEST
+    }
+
+    /**
+     * Receives batches of samples on the worker thread. The batch is reused once
+     * <code>insert()</code> returns, so it must not be kept.
+     */
+    public interface Sink {
+        void insert(SampleBuffer batch) throws DataKitException;
+    }
+
+    /**
+     * Thrown by a <code>Sink</code> that inserted the first samples of a batch before failing, so
+     * that only the samples after them are spooled or replayed.
+     */
+    public static class PartialInsertException extends DataKitException {
+        private static final long serialVersionUID = 1L;
+
+        private final int inserted;
+
+        /**
+         * Constructor
+         * @param message Reason the insert failed.
+         * @param inserted Number of samples at the start of the batch that were inserted.
+         */
+        public PartialInsertException(String message, int inserted) {
+            super(message);
+            this.inserted = inserted;
+        }
+
+        public int getInserted() {
+            return inserted;
+        }
+    }
+
+    /**
+     * <code>Sink</code> that may hold samples back between calls, such as to fill a block. The
+     * pipeline calls <code>flush()</code> on the worker thread when it is closed. If that fails,
+     * the samples left in <code>getPending()</code> are moved to the spool. They keep their
+     * timestamps but are replayed after any samples that were already spooled.
+     */
+    public interface BufferingSink extends Sink {
+        void flush() throws DataKitException;
+
+        SampleBuffer getPending();
+    }
+
+    /**
+     * <code>Sink</code> that stores samples replayed from the spool differently from new ones,
+     * such as without measuring their rate. The pipeline calls <code>insertReplayed()</code> for
+     * every batch read from the spool.
+     */
+    public interface ReplayAwareSink extends Sink {
+        void insertReplayed(SampleBuffer batch) throws DataKitException;
+    }
+
+    /**
+     * Notified on the worker thread when the <code>Sink</code> rejects a batch.
+     */
+    public interface OnInsertFailedListener {
+        void onInsertFailed(DataKitException e, int batchSize);
+    }
+
+    /**
+     * Notified on the worker thread when samples replayed from the spool have been inserted. They
+     * carry their original timestamps, so they may land in time ranges that were already read.
+     */
+    public interface OnReplayedListener {
+        void onReplayed(long firstTimestamp, long lastTimestamp);
+    }
+
+    private final Sink sink;
+    private final int maxBatchSize;
+    private final long maxBatchAgeNanos;
+    private final BackpressurePolicy policy;
+    private volatile OnInsertFailedListener failedListener;
+    private volatile OnReplayedListener replayedListener;
+    private volatile PipelineMetrics metrics = null;
+
+    // Queue state, guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final SampleBuffer queue;
+    private long oldestQueuedAt;
+    private long offeredTotal;
+    private long completedTotal;
+    private long flushTarget;
+    private long droppedTotal;
+    private boolean closed;
+
+    // Spool state. nextReplayAt and retryDelayNanos are guarded by lock.
+    private static final long RETRY_DELAY_MIN = TimeUnit.SECONDS.toNanos(5);
+    private static final long RETRY_DELAY_MAX = TimeUnit.SECONDS.toNanos(60);
+    private static final int REPLAY_BATCHES_PER_ROUND = 20;
+    private volatile SampleSpool spool = null;
+    private long nextReplayAt;
+    private long retryDelayNanos = RETRY_DELAY_MIN;
+
+    private final Thread worker;
+
+    /**
+     * Creates the pipeline and starts its worker thread.
+     * @param sink Destination of the batches.
+     * @param capacity Maximum number of queued samples.
+     * @param maxBatchSize Number of samples that triggers a flush.
+     * @param maxBatchAgeMillis Age of the oldest queued sample that triggers a flush.
+     * @param policy Behavior of <code>offer()</code> when the queue is full.
+     */
+    public InsertPipeline(Sink sink, int capacity, int maxBatchSize, long maxBatchAgeMillis,
+                          BackpressurePolicy policy) {
+        if (capacity <= 0 || maxBatchSize <= 0 || maxBatchSize > capacity)
+            throw new IllegalArgumentException("invalid capacity " + capacity + " or batch size " + maxBatchSize);
+        this.sink = sink;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchAgeMillis);
+        this.policy = policy;
+        queue = new SampleBuffer(capacity);
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "InsertPipeline");
+        worker.start();
+    }
+
+    public void setOnInsertFailedListener(OnInsertFailedListener listener) {
+        failedListener = listener;
+    }
+
+    public void setOnReplayedListener(OnReplayedListener listener) {
+        replayedListener = listener;
+    }
+
+    /**
+     * Records accepted, dropped, spooled and inserted samples, insert latency and batch sizes.
+     * @param metrics Metrics of the stream, or null to stop recording.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Attaches a spool for batches DataKit rejects. Must be called before the first sample is
+     * offered. The pipeline closes the spool when it is closed. Samples already in the spool are
+     * replayed right away.
+     * @param spool Spool to use.
+     */
+    public void setSpool(SampleSpool spool) {
+        lock.lock();
+        try {
+            this.spool = spool;
+            nextReplayAt = System.nanoTime();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public SampleSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * Replays the spool now instead of waiting for the retry delay. Call when DataKit becomes
+     * available again, for example from <code>OnConnectionListener.onConnected()</code>.
+     */
+    public void requestReplay() {
+        lock.lock();
+        try {
+            nextReplayAt = System.nanoTime();
+            retryDelayNanos = RETRY_DELAY_MIN;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a sample for insertion.
+     * @param timestamp Time of the sample in milliseconds since the epoch.
+     * @param x First axis.
+     * @param y Second axis.
+     * @param z Third axis.
+     * @return Whether the sample was queued. Returns false if the sample was dropped by
+     * <code>DROP_NEWEST</code> or the pipeline is closed.
+     */
+    public boolean offer(long timestamp, double x, double y, double z) {
+        lock.lock();
+        try {
+            if (closed)
+                return false;
+            PipelineMetrics current = metrics;
+            if (current != null)
+                current.onAccepted();
+            if (queue.isFull()) {
+                switch (policy) {
+                    case BLOCK:
+                        while (queue.isFull() && !closed)
+                            notFull.awaitUninterruptibly();
+                        if (closed)
+                            return false;
+                        break;
+                    case DROP_OLDEST:
+                        queue.removeOldest();
+                        completedTotal++;
+                        droppedTotal++;
+                        if (current != null)
+                            current.onDropped(1);
+                        break;
+                    case DROP_NEWEST:
+                        droppedTotal++;
+                        if (current != null)
+                            current.onDropped(1);
+                        return false;
+                }
+            }
+            queue.add(timestamp, x, y, z);
+            offeredTotal++;
+            int count = queue.size();
+            if (count == 1) {
+                oldestQueuedAt = System.nanoTime();
+                notEmpty.signal();
+            } else if (count == maxBatchSize)
+                notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts every sample queued before this call and waits until the <code>Sink</code> has
+     * received them.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            long target = requestFlushLocked();
+            while (completedTotal < target && worker.isAlive())
+                drained.awaitUninterruptibly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts every sample queued before this call without waiting, for example at the end of a
+     * burst of batched sensor events, instead of waiting for the batch size or age.
+     */
+    public void requestFlush() {
+        lock.lock();
+        try {
+            requestFlushLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     * @return Number of offered samples the flush covers.
+     */
+    private long requestFlushLocked() {
+        long target = offeredTotal;
+        if (target > flushTarget) {
+            flushTarget = target;
+            notEmpty.signal();
+        }
+        return target;
+    }
+
+    /**
+     * Stops accepting samples, inserts the samples that are still queued and stops the worker
+     * thread. Samples still in the spool stay there for the next pipeline using the same file.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (worker.isAlive()) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        SampleSpool current = spool;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+                // Every appended sample is already in the mapped file
+            }
+        }
+    }
+
+    /**
+     * @return Number of samples discarded because the queue was full.
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedTotal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainLoop() {
+        SampleBuffer batch = new SampleBuffer(maxBatchSize);
+        SampleBuffer replayBatch = new SampleBuffer(maxBatchSize);
+        while (true) {
+            boolean replay;
+            lock.lock();
+            try {
+                while (!readyToDrain()) {
+                    long wait = nanosUntilReady();
+                    if (wait == Long.MAX_VALUE)
+                        notEmpty.awaitUninterruptibly();
+                    else if (wait > 0)
+                        notEmpty.awaitNanos(wait);
+                }
+                replay = replayDue();
+                if (queue.isEmpty() && !replay) // closed and drained
+                    break;
+                queue.drainTo(batch, maxBatchSize);
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                continue;
+            } finally {
+                lock.unlock();
+            }
+
+            if (replay)
+                replaySpool(replayBatch);
+            if (!batch.isEmpty())
+                insert(batch);
+
+            lock.lock();
+            try {
+                completedTotal += batch.size();
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            batch.clear();
+        }
+        if (sink instanceof BufferingSink)
+            flushSink((BufferingSink) sink);
+        lock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts a batch, or spools it if the spool already holds older samples or the insert fails.
+     */
+    private void insert(SampleBuffer batch) {
+        SampleSpool current = spool;
+        if (current != null && !current.isEmpty()) {
+            spool(current, batch);
+            return;
+        }
+        try {
+            sink.insert(batch);
+            recordInserted(batch);
+        } catch (DataKitException e) {
+            int inserted = insertedBefore(e);
+            notifyFailed(e, batch.size() - inserted);
+            if (current != null) {
+                spool(current, batch, inserted);
+                scheduleRetry();
+            }
+        }
+    }
+
+    private static int insertedBefore(DataKitException e) {
+        return e instanceof PartialInsertException ? ((PartialInsertException) e).getInserted() : 0;
+    }
+
+    private void spool(SampleSpool current, SampleBuffer batch) {
+        spool(current, batch, 0);
+    }
+
+    private void spool(SampleSpool current, SampleBuffer batch, int from) {
+        int appended = current.append(batch, from);
+        PipelineMetrics recorder = metrics;
+        if (recorder != null) {
+            recorder.onSpooled(appended);
+            recorder.onDropped(batch.size() - from - appended);
+        }
+    }
+
+    private void recordInserted(SampleBuffer batch) {
+        PipelineMetrics recorder = metrics;
+        if (recorder != null)
+            recorder.onInserted(batch, System.currentTimeMillis());
+    }
+
+    /**
+     * Writes the samples a <code>BufferingSink</code> still holds, or spools them if that fails.
+     */
+    private void flushSink(BufferingSink bufferingSink) {
+        try {
+            bufferingSink.flush();
+        } catch (DataKitException e) {
+            SampleBuffer pending = bufferingSink.getPending();
+            notifyFailed(e, pending.size());
+            SampleSpool current = spool;
+            if (current != null) {
+                spool(current, pending);
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Inserts a bounded number of batches from the spool so that new samples keep moving.
+     */
+    private void replaySpool(SampleBuffer replayBatch) {
+        SampleSpool current = spool;
+        for (int round = 0; round < REPLAY_BATCHES_PER_ROUND; round++) {
+            replayBatch.clear();
+            int n = current.peek(replayBatch, maxBatchSize);
+            if (n == 0)
+                break;
+            try {
+                if (sink instanceof ReplayAwareSink)
+                    ((ReplayAwareSink) sink).insertReplayed(replayBatch);
+                else
+                    sink.insert(replayBatch);
+                recordInserted(replayBatch);
+            } catch (DataKitException e) {
+                int inserted = insertedBefore(e);
+                notifyReplayed(replayBatch, inserted);
+                current.commit(inserted);
+                notifyFailed(e, n - inserted);
+                scheduleRetry();
+                return;
+            }
+            notifyReplayed(replayBatch, n);
+            current.commit(n);
+        }
+        lock.lock();
+        try {
+            retryDelayNanos = RETRY_DELAY_MIN;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void scheduleRetry() {
+        lock.lock();
+        try {
+            nextReplayAt = System.nanoTime() + retryDelayNanos;
+            retryDelayNanos = Math.min(2 * retryDelayNanos, RETRY_DELAY_MAX);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports the time range of the first <code>count</code> samples of a replayed batch. Spooled
+     * samples are not always in timestamp order, so the whole range is searched.
+     */
+    private void notifyReplayed(SampleBuffer batch, int count) {
+        OnReplayedListener listener = replayedListener;
+        if (listener == null || count == 0)
+            return;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            first = Math.min(first, batch.getTimestamp(i));
+            last = Math.max(last, batch.getTimestamp(i));
+        }
+        listener.onReplayed(first, last);
+    }
+
+    private void notifyFailed(DataKitException e, int batchSize) {
+        PipelineMetrics recorder = metrics;
+        if (recorder != null)
+            recorder.onInsertFailed();
+        OnInsertFailedListener listener = failedListener;
+        if (listener != null)
+            listener.onInsertFailed(e, batchSize);
+    }
+
+    /**
+     * Must be called with the lock held. The samples left behind by a partial drain keep the age
+     * of the sample that was oldest before it, which can only make the next flush come earlier.
+     */
+    private boolean readyToDrain() {
+        if (replayDue())
+            return true;
+        int count = queue.size();
+        if (count == 0)
+            return closed;
+        return closed || count >= maxBatchSize || offeredTotal - count < flushTarget
+                || System.nanoTime() - oldestQueuedAt >= maxBatchAgeNanos;
+    }
+
+    /**
+     * Must be called with the lock held. The spool is not replayed once the pipeline is closed.
+     */
+    private boolean replayDue() {
+        SampleSpool current = spool;
+        return current != null && !closed && !current.isEmpty() && System.nanoTime() - nextReplayAt >= 0;
+    }
+
+    /**
+     * Must be called with the lock held.
+     * @return Nanoseconds until a queued batch or the spool is due, or Long.MAX_VALUE if nothing is.
+     */
+    private long nanosUntilReady() {
+        long now = System.nanoTime();
+        long wait = Long.MAX_VALUE;
+        if (!queue.isEmpty())
+            wait = maxBatchAgeNanos - (now - oldestQueuedAt);
+        SampleSpool current = spool;
+        if (current != null && !closed && !current.isEmpty())
+            wait = Math.min(wait, nextReplayAt - now);
+        return wait;
+    }
+}
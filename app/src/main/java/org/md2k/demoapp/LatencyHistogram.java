@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory histogram of non-negative values, such as latencies, in the style of HdrHistogram.
+ * Values below 32 have their own bucket. Above that every power of two is split into 32 buckets,
+ * so a value is reported within about 3% of what was recorded. Values above
+ * <code>highestValue</code> are counted as <code>highestValue</code>.
+ * <p>
+ * <code>record()</code> is lock free and can be called from any thread. A <code>Snapshot</code>
+ * copies the counts so percentiles are computed from a consistent view.
+ * </p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long highestValue;
+    private final AtomicLongArray counts;
+
+    /**
+     * Constructor
+     * @param highestValue Largest value that is tracked with full precision.
+     */
+    public LatencyHistogram(long highestValue) {
+        if (highestValue < SUB_BUCKETS)
+            throw new IllegalArgumentException("invalid highest value " + highestValue);
+        this.highestValue = highestValue;
+        counts = new AtomicLongArray(indexOf(highestValue) + 1);
+    }
+
+    /**
+     * Counts one value. Negative values are counted as zero.
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(0, Math.min(value, highestValue))));
+    }
+
+    /**
+     * @return A copy of the current counts.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++)
+            copy[i] = counts.get(i);
+        return new Snapshot(copy);
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    static long highestValueAt(int index) {
+        return lowestValueAt(index + 1) - 1;
+    }
+
+    /**
+     * Counts of a <code>LatencyHistogram</code> at one point in time.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts)
+                total += count;
+            totalCount = total;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * @param percentile Percentile between 0 and 100.
+         * @return The highest value equivalent to the value at the percentile, or 0 if the
+         * histogram is empty.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount == 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target)
+                    return highestValueAt(i);
+            }
+            return highestValueAt(counts.length - 1);
+        }
+
+        /**
+         * @return The highest value equivalent to the largest recorded value, or 0 if empty.
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0)
+                    return highestValueAt(i);
+            }
+            return 0;
+        }
+
+        /**
+         * @return Mean of the recorded values, each taken as the middle of its bucket.
+         */
+        public double getMean() {
+            if (totalCount == 0)
+                return 0;
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0)
+                    sum += counts[i] * (lowestValueAt(i) + highestValueAt(i)) / 2.0;
+            }
+            return sum / totalCount;
+        }
+    }
+}
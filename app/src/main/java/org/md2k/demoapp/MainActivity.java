@@ -25,14 +25,15 @@
  * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+
 package org.md2k.demoapp;
 
 // Android imports
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.ActivityInfo;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
+import android.os.IBinder;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
@@ -46,38 +47,25 @@ import java.util.ArrayList;
 // DataKitAPI imports
 import org.md2k.datakitapi.DataKitAPI;
 import org.md2k.datakitapi.datatype.DataType;
-import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
 import org.md2k.datakitapi.datatype.DataTypeLong;
 import org.md2k.datakitapi.exception.DataKitException;
-import org.md2k.datakitapi.messagehandler.OnConnectionListener;
-import org.md2k.datakitapi.messagehandler.OnReceiveListener;
-import org.md2k.datakitapi.source.application.Application;
-import org.md2k.datakitapi.source.application.ApplicationBuilder;
-import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
 import org.md2k.datakitapi.source.datasource.DataSourceClient;
 import org.md2k.datakitapi.source.datasource.DataSourceType;
 import org.md2k.datakitapi.time.DateTime;
 
 /**
  * This application demonstrates how to connect to and make API calls against DataKit via DataKitAPI.
+ * The DataKit connection, the data sources and the data collection belong to
+ * <code>CollectionService</code>. This activity binds to it, forwards the buttons to it and shows
+ * its state, messages and live previews, so it can be closed or re-created without interrupting
+ * collection.
  */
-public class MainActivity extends AppCompatActivity implements SensorEventListener {
-
-    // Variables for accelerometer data
-    private SensorManager mSensorManager;
-    private Sensor mSensor = null;
-    private long lastSaved;
-    private double minSampleTime = 100; // 100 milliseconds
-    public static final double GRAVITY = 9.81;
+public class MainActivity extends AppCompatActivity {
 
     // Variables for DataKit objects
-    private DataKitAPI datakitapi;
-    private DataSourceClient regDataSourceClient = null;
-    private DataSourceClient subDataSourceClient = null;
+    private CollectionService service = null;
     private ArrayList<DataType> dataTypeQuery = null;
-    private DataTypeDoubleArray dataTypeDoubleArray;
-    private DataTypeLong querySize;
-    private Boolean isHF;
+    private static final long RECENT_WINDOW = 600000; // 10 minutes
 
     // Variables for the user view
     private TextView conButton;
@@ -86,11 +74,12 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
     private TextView insButton;
     private TextView output;
     private TextView subOutput;
+    private SampleRenderer subRenderer;
     private Switch hfSwitch;
 
     /**
-     * Upon creation, the buttons, <code>SensorManager</code>, <code>Sensor</code>, and current datetime
-     * are initialized. An instance of DataKit is also retrieved/created.
+     * Upon creation, the buttons are initialized and the activity binds to
+     * <code>CollectionService</code>, which is created if it is not running yet.
      * @param savedInstanceState Previous state of the application if available.
      */
     @Override
@@ -106,57 +95,108 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         insButton = findViewById(R.id.insButton);
         output = findViewById(R.id.outputTextView);
         subOutput = findViewById(R.id.subTextView);
+        subRenderer = new SampleRenderer(subOutput);
         hfSwitch = findViewById(R.id.hfSwitch);
-        isHF = hfSwitch.isChecked();
-
-        // Gets sensor service
-        mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
 
-        // Sets the desired sensor
-        mSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        lastSaved = DateTime.getDateTime();
-
-        datakitapi = datakitapi.getInstance(this);
+        bindService(new Intent(this, CollectionService.class), serviceConnection, BIND_AUTO_CREATE);
     }
 
     /**
-     * Builds a new application object. This object represents this application and helps
-     * identify data within the database.
-     * @return Application datatype
+     * Unbinds from <code>CollectionService</code>. It keeps collecting if DataKit is connected.
      */
-    public Application buildApplication() {
-        return new ApplicationBuilder().setId(MainActivity.this.getPackageName()).build();
+    @Override
+    protected void onDestroy() {
+        if (service != null) {
+            service.setStatusListener(null);
+            service.setPreviewListener(null);
+            service = null;
+        }
+        unbindService(serviceConnection);
+        subRenderer.clear();
+        super.onDestroy();
     }
 
     /**
-     * Builds a data source object representing the sensor and application creating the data source.
-     * This demo application only uses the accelerometer, but any available sensor, hardware or software
-     * based, can be used.
-     * @param application Application object representing this application.
-     * @return A data source builder
+     * Takes the state of <code>CollectionService</code> when bound to it, which may already be
+     * connected and collecting if the activity was re-created.
+     */
+    private ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((CollectionService.LocalBinder) binder).getService();
+            service.setStatusListener(statusListener);
+            service.setPreviewListener(previewListener);
+            service.setHighFrequencyForced(hfSwitch.isChecked());
+            conButton.setText(service.isConnected() ? R.string.disconnect_button : R.string.connect_button);
+            regButton.setText(service.isRegistered() ? R.string.unregister_button : R.string.register_button);
+            subButton.setText(service.isSubscribed() ? R.string.unsubscribe_button : R.string.subscribe_button);
+            insButton.setText(service.isCollecting() ? R.string.inserting : R.string.insert_button);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+    };
+
+    /**
+     * <code>AsyncDataKit.Callback</code> that prints failures to the output text view.
+     * @param <T> Result type.
      */
-    public DataSourceBuilder buildDataSource(Application application) {
-        return new DataSourceBuilder().setType(DataSourceType.ACCELEROMETER).setApplication(application);
+    private abstract class OutputCallback<T> implements AsyncDataKit.Callback<T> {
+        @Override
+        public void onFailure(DataKitException e) {
+            printMessage(e.getMessage(), output);
+        }
     }
 
     /**
-     * Builds a data source object representing the sensor. In this application this is only used for
-     * registering the data source. It could be used to find all data sources of the set type independent
-     * from the application.
-     * @return A data source builder
+     * Results of the query button, made on a reader thread and handed to the main thread as a whole.
      */
-    public DataSourceBuilder buildDataSource() {
-        return new DataSourceBuilder().setType(DataSourceType.ACCELEROMETER);
+    private static class QueryResult {
+        final ArrayList<DataType> rows;
+        final DataTypeLong size;
+        final ColumnarResult recent;
+
+        QueryResult(ArrayList<DataType> rows, DataTypeLong size, ColumnarResult recent) {
+            this.rows = rows;
+            this.size = size;
+            this.recent = recent;
+        }
     }
 
     /**
-     * Switch mechanism for switching between <code>insertData()</code> and <code>insertHFData</code>.
-     * This is not necessary in a typical application, but used to demonstrate the difference between
-     * these two data insert methods.
+     * Prints messages of <code>CollectionService</code>, such as rejected inserts and storage path
+     * changes.
+     */
+    private CollectionService.StatusListener statusListener = new CollectionService.StatusListener() {
+        @Override
+        public void onStatus(String message) {
+            printMessage(message, output);
+        }
+    };
+
+    /**
+     * Shows the newest accelerometer sample. <code>SampleRenderer</code> only draws it once per
+     * display frame, however fast samples arrive.
+     */
+    private CollectionService.PreviewListener previewListener = new CollectionService.PreviewListener() {
+        @Override
+        public void onPreview(double x, double y, double z) {
+            subRenderer.update(x, y, z);
+        }
+    };
+
+    /**
+     * Each stream's <code>StorageRouter</code> chooses between <code>insert()</code> and
+     * <code>insertHighFrequency()</code> from the stream's measured rate. The switch forces every
+     * stream to use <code>insertHighFrequency()</code>, which is not necessary in a typical
+     * application but demonstrates the difference between the two insert methods.
      * @param view hfSwitch
      */
     public void setHFSwitch(View view) {
-        isHF = hfSwitch.isChecked();
+        if (service != null)
+            service.setHighFrequencyForced(hfSwitch.isChecked());
     }
 
     /**
@@ -164,244 +204,158 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
      * any other methods are called. Not doing so will result in <code>DataKitException</code>s which
      * must be handled. <code>DataKitAPI.connect(new OnConnectionListener()</code> registers a callback
      * interface so that this application and DataKit can communicate.
+     * <p>
+     * All DataKit calls in this application go through <code>AsyncDataKit</code>, which makes them
+     * on background threads and reports back on the main thread, so no button handler blocks the UI.
+     * </p>
      * @param view conButton
      */
     public void connectButton(View view) {
-        try {
-            if (datakitapi.isConnected()) {
-                disconnectDataKit();
-            } else
-                datakitapi.connect(new OnConnectionListener() {
+        if (service == null)
+            return;
+        if (service.isConnected()) {
+            disconnectDataKit();
+        } else
+            service.connect(new OutputCallback<Void>() {
                 @Override
-                public void onConnected() {
+                public void onSuccess(Void result) {
                     printMessage(R.string.dataKitConnected, output);
                     conButton.setText(R.string.disconnect_button);
                 }
             });
-        } catch (DataKitException ignored) {
-            printMessage(ignored.getMessage(), output);
-        }
     }
 
     /**
      * Before DataKit is disconnected, all data sources must be unsubscribed and unregistered.
      * Exception checking is not required when calling <code>DataKitAPI.disconnect()</code>.
+     * <code>CollectionService</code> makes these calls in order.
      */
     public void disconnectDataKit() {
         unsubscribeDataSource();
-        unregisterButton(false);
-        datakitapi.disconnect();
-        regDataSourceClient = null;
-        subDataSourceClient = null;
+        unregisterButton();
+        service.disconnect(null);
         dataTypeQuery = null;
         printMessage(R.string.dataKitDisconnected, output);
         conButton.setText(R.string.connect_button);
     }
 
     /**
-     * Registers the data source with DataKit. DataKit can not receive data from a data source until
-     * that data source is registered.
+     * Registers the data sources with DataKit. DataKit can not receive data from a data source until
+     * that data source is registered. Each captured sensor is a separate data source.
      * @param view regButton
      */
     public void registerButton(View view) {
-        try {
-            if (!(datakitapi.isConnected())) {
-                printMessage(R.string.errorNotConnected, output);
-            }
-            else if (regDataSourceClient == null) {
-                regDataSourceClient = datakitapi.register(buildDataSource());
-                regButton.setText(R.string.unregister_button);
-                printMessage(regDataSourceClient.getDataSource().getType() +
-                        " registration successful", output);
-            } else {
-                unregisterButton(false);
-            }
-        } catch (DataKitException ignored) {
-            unregisterButton(true);
-            printMessage(ignored.getMessage(), output);
+        if (service == null)
+            return;
+        if (!(service.isConnected())) {
+            printMessage(R.string.errorNotConnected, output);
         }
-    }
-
-    /**
-     * Unregistering the sensor listener stops the data collection. Unsubscibing the data source removes
-     * any remaining callbacks. Then unregistering the data source from DataKit can be done. It is possible
-     * to unregister a subset of registered data sources, but <code>DataKitAPI.unregister()</code> only
-     * takes one <code>DataSourceClient</code> as a parameter so the method would need to be called
-     * individually for each data source.
-     * @param failed Whether this method was called because data source registration failed or not.
-     *               Only used for error message handling.
-     */
-    public void unregisterButton(boolean failed) {
-        try {
-            unregisterListener();
-            unsubscribeDataSource();
-            datakitapi.unregister(regDataSourceClient);
-            regDataSourceClient = null;
-            regButton.setText(R.string.register_button);
-        } catch (DataKitException ignored){
-            printMessage(ignored.getMessage(), output);
+        else if (!service.isRegistered()) {
+            service.register(new OutputCallback<DataSourceClient>() {
+                @Override
+                public void onSuccess(DataSourceClient result) {
+                    regButton.setText(R.string.unregister_button);
+                    printMessage(result.getDataSource().getType() +
+                            " registration successful", output);
+                }
+            });
+        } else {
+            unregisterButton();
         }
-        if (failed)
-            printMessage(regDataSourceClient.getDataSource().getType() +
-                    " registration failed", output);
-        else
-            printMessage(R.string.dataSourceUnregistered, output);
     }
 
     /**
-     * Unregisters the sensor listener. To pass <code>this</code> as the sensor listener, the class
-     * must implement <code>SensorEventListener</code>.
+     * Stops the collection, unsubscribes and unregisters the data sources from DataKit, in that
+     * order.
      */
-    public void unregisterListener() {
-        mSensorManager.unregisterListener(this, mSensor);
+    public void unregisterButton() {
+        unsubscribeDataSource();
+        service.unregister(new OutputCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                printMessage(R.string.dataSourceUnregistered, output);
+            }
+        });
         insButton.setText(R.string.insert_button);
-        subOutput.setText("");
+        regButton.setText(R.string.register_button);
+        subRenderer.clear();
     }
 
     /**
      * Subscribing a data source registers a callback interface that returns the data received by
-     * the database. In this implementation <code>dataSourceClients</code> only has one node because
-     * the only sensor that is registered is the accelerometer. In production the resulting arraylist
-     * is likely to have many more nodes.
+     * the database. This application subscribes to the accelerometer and shows the data it receives
+     * in the subscription text view.
      * @param view subButton
      */
     public void subscribeButton (View view){
-        ArrayList<DataSourceClient> dataSourceClients;
-        try {
-            if (subDataSourceClient == null) {
-                dataSourceClients = datakitapi.find(buildDataSource(buildApplication()));
-                if(dataSourceClients.size() == 0) {
-                    printMessage(R.string.errorNotRegistered, output);
-                } else {
-                    subDataSourceClient = dataSourceClients.get(0);
-                    // gets index 0 because there should only be one in this application
-                    datakitapi.subscribe(subDataSourceClient, subscribeListener);
-                    subButton.setText(R.string.unsubscribe_button);
-                    printMessage(R.string.dataSourceSubscribed, output);
-                }
-            } else {
-                unsubscribeDataSource();
-            }
-        } catch (DataKitException ignored) {
-            subButton.setText(R.string.subscribe_button);
-            subDataSourceClient = null;
-            printMessage(ignored.getMessage(), output);
+        if (service == null)
+            return;
+        if (service.isSubscribed()) {
+            unsubscribeDataSource();
+            return;
         }
-    }
+        subButton.setText(R.string.unsubscribe_button);
+        service.subscribe(new OutputCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                printMessage(R.string.dataSourceSubscribed, output);
+            }
 
-    /**
-     * <code>OnReceiveListener</code> used for subscription. This demo application simply displays the
-     * data to an output text view.
-     */
-    public OnReceiveListener subscribeListener = new OnReceiveListener() {
-        @Override
-        public void onReceived(DataType dataType) {
-            printSample((DataTypeDoubleArray) dataType, subOutput);
-        }
-    };
+            @Override
+            public void onFailure(DataKitException e) {
+                subButton.setText(R.string.subscribe_button);
+                super.onFailure(e);
+            }
+        });
+    }
 
     /**
      * Unsubscribing a data source only unregisters the callback interface. Data is still collected
-     * and inserted. Nullifying the associated <code>DataSourceClient</code> variable prevents conflicts
-     * if the data source is subscribed again.
+     * and inserted.
      */
     public void unsubscribeDataSource() {
-        try {
-            datakitapi.unsubscribe(subDataSourceClient);
-            subDataSourceClient = null;
-            subButton.setText(R.string.subscribe_button);
-            printMessage(R.string.dataSourceUnsubscribed, output);
-        } catch (DataKitException ignored) {
-            printMessage(ignored.getMessage(), output);
-        }
+        if (!service.isSubscribed())
+            return;
+        service.unsubscribe(new OutputCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                printMessage(R.string.dataSourceUnsubscribed, output);
+            }
+        });
+        subButton.setText(R.string.subscribe_button);
     }
 
     /**
-     * In this implementation, pressing the insert button only registers the sensor listener. All data
-     * collection occurs in the overridden <code>onSensorChanged()</code> method.
+     * In this implementation, pressing the insert button only asks <code>CollectionService</code> to
+     * start collecting. All data collection occurs in the service, on its own threads, and goes on
+     * when this activity is closed.
      * @param view insButton
      */
     public void insertButton (View view){
-        if(regDataSourceClient != null) {
-            mSensorManager.registerListener(this, mSensor, SensorManager.SENSOR_DELAY_NORMAL);
-            insButton.setText(R.string.inserting);
+        if (service == null || service.isCollecting())
+            return;
+        if (service.isRegistered()) {
+            service.startCollection(new OutputCallback<Boolean>() {
+                @Override
+                public void onSuccess(Boolean started) {
+                    if (started)
+                        insButton.setText(R.string.inserting);
+                }
+            });
         } else {
             printMessage(R.string.errorNotRegistered, output);
         }
     }
 
-    /**
-     * To limit the frequency of samples a minimum sample time of 100 milliseconds. The accelerometer
-     * is sampled at 10 hertz and is adjusted for gravity before being passed into a new
-     * <code>DataTypeDoubleArray</code>. An appropriate <code>DataType</code> for the sensor should
-     * be used. For example, motion sensors should use <code>DataTypeDoubleArray</code> because they
-     * return an array of double values. The proximity sensor and other environmental sensors should
-     * use <code>DataTypeDouble</code>, as they return an array with only one value.
-     * @param event Value of the new accelerometer data.
-     */
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        long curTime = DateTime.getDateTime();
-        if ((double)(curTime - lastSaved) > minSampleTime) {
-            lastSaved = curTime;
-            double[] samples = new double[3];
-            samples[0] = event.values[0] / GRAVITY; // X axis
-            samples[1] = event.values[1] / GRAVITY; // Y axis
-            samples[2] = event.values[2] / GRAVITY; // Z axis
-            dataTypeDoubleArray = new DataTypeDoubleArray(curTime, samples);
-            if (isHF)
-                insertHFData(dataTypeDoubleArray);
-            else
-                insertData(dataTypeDoubleArray);
-        }
-    }
-
-    /**
-     * Data is inserted into the database using the associated <code>DataSourceClient</code>, which
-     * provides relevant metadata, and the data sample itself. This demo also displays the data that
-     * is inserted, but that is not necessary. The standard insertion method adds rows to a database
-     * that is stored in <code>Android/Data/org.md2k.datakit/files/database.db</code> by default.
-     * Using <code>insertHighFrequency()</code> is recommended for sensors that produce a lot of data,
-     * such as the accelerometer, to help manage the size of the database.
-     * @param data Data to insert into the database
-     */
-    public void insertData(DataTypeDoubleArray data) {
-        try {
-            datakitapi.insert(regDataSourceClient, data);
-        } catch (DataKitException ignored) {
-            Log.e("database insert", ignored.getMessage());
-            printMessage(ignored.getMessage(), output);
-        }
-    }
-
-    /**
-     * Data is passed to <code>insertHighFrequency()</code> similarly to <code>insert()</code>. The
-     * difference is that the high frequency data is stored in a gzipped csv file that is stored in
-     * <code>Android/Data/org.md2k.datakit/files/raw/</code> by default. Recording the data in this
-     * way helps reduce the amount of resources DataKit requires.
-     * @param data Data to record.
-     */
-    public void insertHFData(DataTypeDoubleArray data) {
-        try {
-            datakitapi.insertHighFrequency(regDataSourceClient, data);
-            printSample(data, subOutput);
-        } catch (DataKitException ignored) {
-            Log.e("hf data insert", ignored.getMessage());
-            printMessage(ignored.getMessage(), output);
-        }
-    }
-
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int x) {}
-
     /**
      * Queries the database for data matching the given data source and parameters.
      *
-     * This demo application only shows one query method. In this example, an arraylist of
-     * <code>DataSourceClient</code>s matching the desired data source is produced using the
-     * <code>DataKitAPI.find()</code> method. <code>DataKitAPI.find()</code> takes a
-     * <code>DataSourceBuilder</code> object as a parameter. This <code>DataSourceBuilder</code> can
-     * be configured for a particular data source or application. The query call is performed by passing
+     * This demo application only shows one query method. In this example, the
+     * <code>DataSourceClient</code> matching the desired data source comes from
+     * <code>DataSourceRegistry</code>, which falls back to the <code>DataKitAPI.find()</code> method.
+     * <code>DataKitAPI.find()</code> takes a <code>DataSourceBuilder</code> object as a parameter.
+     * This <code>DataSourceBuilder</code> can be configured for a particular data source or
+     * application. The query call is performed by passing
      * a <code>DataSourceClient</code> and an integer representing the "last n samples" that were collected.
      * Using this query method returns the last n rows matching the given data source in the database,
      * where n is the number of samples to return.
@@ -414,62 +368,91 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
      * </p>
      * All <code>DataKitAPI.query()</code> methods return an arraylist of <code>DataType</code> objects.
      * <code>DataKitAPI.queryFromPrimaryKey</code> returns an arraylist of <code>RowObject</code>s.
+     * For results too large to hold in memory, <code>AsyncDataKit.openCursor()</code> reads
+     * <code>queryFromPrimaryKey</code> page by page. Here the last ten minutes are also summarized
+     * through <code>TimeRangeQueryService</code>, which caches time windows in chunks so that
+     * repeating the query only fetches the newest samples.
      *
      * <p>
      * Another useful method demonstrated here is <code>DataKitAPI.querySize()</code> which returns
      * the number of rows in the database as a <code>DataTypeLong</code> object.
      * </p>
+     * <p>
+     * The lookup and the queries run together on a reader thread of <code>AsyncDataKit</code>, so a
+     * long query does not block the UI or wait behind registrations.
+     * </p>
      * @param view queButton
      */
     public void queryButton (View view){
-        try {
-            ArrayList<DataSourceClient> dataSourceClients = datakitapi.find(buildDataSource(buildApplication()));
-            if (dataSourceClients.size() == 0) {
-                printMessage(R.string.errorNotRegistered, output);
-            } else {
-                querySize = datakitapi.querySize();
-                dataTypeQuery = datakitapi.query(dataSourceClients.get(0), 3);
-                if (dataTypeQuery.size() == 0) {
+        if (service == null)
+            return;
+        final DataKitAPI datakitapi = service.getAsyncDataKit().getDataKitAPI();
+        final DataSourceRegistry dataSourceRegistry = service.getDataSourceRegistry();
+        final TimeRangeQueryService timeRangeQueryService = service.getTimeRangeQueryService();
+        service.getAsyncDataKit().read(new AsyncDataKit.Operation<QueryResult>() {
+            @Override
+            public QueryResult call() throws DataKitException {
+                DataSourceClient dataSourceClient = dataSourceRegistry.resolveNow(DataSourceType.ACCELEROMETER);
+                if (dataSourceClient == null)
+                    return null;
+                DataTypeLong size = datakitapi.querySize();
+                long now = DateTime.getDateTime();
+                ColumnarResult recent = timeRangeQueryService.query(DataSourceType.ACCELEROMETER,
+                        now - RECENT_WINDOW, now);
+                return new QueryResult(datakitapi.query(dataSourceClient, 3), size, recent);
+            }
+        }, new AsyncDataKit.Callback<QueryResult>() {
+            @Override
+            public void onSuccess(QueryResult result) {
+                dataTypeQuery = result == null ? null : result.rows;
+                if (dataTypeQuery == null) {
+                    printMessage(R.string.errorNotRegistered, output);
+                } else if (dataTypeQuery.size() == 0) {
                     printMessage("query size zero", output);
-                } else
-                    printQuery(dataTypeQuery);
+                } else if (service != null)
+                    printQuery(dataTypeQuery, result.size, result.recent);
             }
-        } catch (DataKitException ignored) {
-            Log.e("query", ignored.getMessage());
-            dataTypeQuery = null;
-            printMessage(ignored.getMessage(), output);
-        }
+
+            @Override
+            public void onFailure(DataKitException e) {
+                Log.e("query", e.getMessage());
+                dataTypeQuery = null;
+                printMessage(e.getMessage(), output);
+            }
+        });
     }
 
     /**
-     * This is an example of how a query result might be printed.
+     * This is an example of how a query result might be printed. The result is converted to a
+     * <code>ColumnarResult</code> once instead of checking and unpacking each row. A summary of the
+     * last ten minutes and the metrics of each stream are printed after it.
      * @param query Query result
+     * @param querySize Number of rows in the database.
+     * @param recent Samples of the last ten minutes.
      */
-    public void printQuery (ArrayList<DataType> query) {
+    public void printQuery (ArrayList<DataType> query, DataTypeLong querySize, ColumnarResult recent) {
+        ColumnarResult columns = ColumnarResult.fromDataTypes(query);
         StringBuilder message = new StringBuilder();
         message.append("Query Size is ").append(querySize.getSample()).append("\n");
         message.append("[X axis, Y axis, Z axis]\n");
-        for (DataType data : query) {
-            if (data instanceof DataTypeDoubleArray) {
-                DataTypeDoubleArray dataArray = (DataTypeDoubleArray)data;
-                double[] sample = dataArray.getSample();
-                message.append("[" + sample[0] + ", " + sample[1] + ", " + sample[2] + "]\n");
-            }
+        for (int i = 0; i < columns.size(); i++)
+            message.append("[").append(columns.get(i, 0)).append(", ").append(columns.get(i, 1))
+                    .append(", ").append(columns.get(i, 2)).append("]\n");
+        message.append("Last ").append(RECENT_WINDOW / 60000).append(" minutes: ").append(recent.size())
+                .append(" samples, ").append(service.getTimeRangeQueryService().getCachedSamples())
+                .append(" cached\n");
+        if (recent.size() > 0 && recent.getDimension() == 3) {
+            message.append("Mean [").append(recent.mean(0)).append(", ").append(recent.mean(1))
+                    .append(", ").append(recent.mean(2)).append("]\n");
+            message.append("Range X [").append(recent.min(0)).append(", ").append(recent.max(0))
+                    .append("]\n");
         }
+        message.append("Pipeline metrics\n");
+        for (CaptureStream stream : service.getSensorCapture().getStreams())
+            message.append(stream.getMetrics().snapshot()).append("\n");
         printMessage(message.toString(), output);
     }
 
-    /**
-     * Prints a data sample. Used for displaying inserted data and data received when a data source
-     * is subscribed.
-     * @param data Data sample to print.
-     * @param output TextView to print to.
-     */
-    public void printSample(DataTypeDoubleArray data, TextView output) {
-        double[] sample = data.getSample();
-        printMessage("[" + sample[0] + ", " + sample[1] + ", " + sample[2] + "]", output);
-    }
-
     /**
      * Prints a message defined in the application resources.
      * @param message Message to print. Should be a resource defined in <code>R.strings</code>.
@@ -487,4 +470,4 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
     public void printMessage (String message, TextView output) {
         output.setText(message);
     }
-}
\ No newline at end of file
+}
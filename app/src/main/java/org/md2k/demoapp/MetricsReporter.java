@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Android imports
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+// Java imports
+import java.util.ArrayList;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+import org.md2k.datakitapi.time.DateTime;
+
+/**
+ * Periodically stores the <code>PipelineMetrics</code> of each stream in DataKit, so data gaps can
+ * be explained after a capture in the field. Each stream gets a data source of type
+ * <code>DATA_SOURCE_TYPE</code> whose id is the stream's data source type. A snapshot is stored as
+ * a <code>DataTypeDoubleArray</code> laid out as described by
+ * <code>PipelineMetrics.Snapshot.toArray()</code>. Must be used from the main thread.
+ */
+public class MetricsReporter {
+    public static final String DATA_SOURCE_TYPE = "PIPELINE_METRICS";
+
+    private final AsyncDataKit asyncDataKit;
+    private final long intervalMillis;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ArrayList<CaptureStream> streams = new ArrayList<>();
+    private final ArrayList<DataSourceClient> clients = new ArrayList<>();
+    private boolean running;
+
+    /**
+     * Constructor
+     * @param asyncDataKit DataKit wrapper the snapshots are written through.
+     * @param intervalMillis Time between snapshots.
+     */
+    public MetricsReporter(AsyncDataKit asyncDataKit, long intervalMillis) {
+        this.asyncDataKit = asyncDataKit;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Registers a metrics data source for each stream and starts writing snapshots.
+     * @param captureStreams Streams to report.
+     */
+    public void start(ArrayList<CaptureStream> captureStreams) {
+        if (running)
+            return;
+        running = true;
+        for (final CaptureStream stream : captureStreams) {
+            DataSourceBuilder builder = new DataSourceBuilder().setType(DATA_SOURCE_TYPE)
+                    .setId(stream.getConfig().getDataSourceType());
+            asyncDataKit.register(builder, new AsyncDataKit.Callback<DataSourceClient>() {
+                @Override
+                public void onSuccess(DataSourceClient result) {
+                    if (!running) {
+                        asyncDataKit.unregister(result, null);
+                        return;
+                    }
+                    streams.add(stream);
+                    clients.add(result);
+                }
+
+                @Override
+                public void onFailure(DataKitException e) {
+                    Log.e("metrics", e.getMessage());
+                }
+            });
+        }
+        handler.postDelayed(report, intervalMillis);
+    }
+
+    /**
+     * Writes a last snapshot, stops reporting and unregisters the metrics data sources.
+     */
+    public void stop() {
+        if (!running)
+            return;
+        running = false;
+        handler.removeCallbacks(report);
+        report.run();
+        for (DataSourceClient client : clients)
+            asyncDataKit.unregister(client, null);
+        streams.clear();
+        clients.clear();
+    }
+
+    private final Runnable report = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < streams.size(); i++) {
+                final DataSourceClient client = clients.get(i);
+                final DataTypeDoubleArray data = new DataTypeDoubleArray(DateTime.getDateTime(),
+                        streams.get(i).getMetrics().snapshot().toArray());
+                asyncDataKit.write(new AsyncDataKit.Operation<Void>() {
+                    @Override
+                    public Void call() throws DataKitException {
+                        if (asyncDataKit.isConnected())
+                            asyncDataKit.getDataKitAPI().insert(client, data);
+                        return null;
+                    }
+                }, null);
+            }
+            if (running)
+                handler.postDelayed(this, intervalMillis);
+        }
+    };
+}
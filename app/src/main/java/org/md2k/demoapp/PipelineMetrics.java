@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms of one captured stream, so a gap in the stored data can be traced to
+ * the sensor, the decimator, the insert queue or DataKit. Every method is thread safe and does
+ * not allocate, so it can be called for every sensor event.
+ * <p>
+ * Samples move through the stages in order: <code>received</code> sensor events are reduced to
+ * <code>accepted</code> samples by the decimator (the difference is reported as
+ * <code>decimated</code>), accepted samples are <code>dropped</code> when the queue or spool is
+ * full, and the rest are <code>inserted</code>, possibly after being <code>spooled</code> while
+ * DataKit was unavailable. Latency is measured from the sensor timestamp to the moment DataKit
+ * returned from the insert, in milliseconds.
+ * </p>
+ */
+public class PipelineMetrics {
+    private static final long HIGHEST_LATENCY = 24 * 3600 * 1000L; // 1 day
+    private static final long HIGHEST_BATCH_SIZE = 65536;
+
+    private final String dataSourceType;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong failedInserts = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram(HIGHEST_LATENCY);
+    private final LatencyHistogram batchSizes = new LatencyHistogram(HIGHEST_BATCH_SIZE);
+
+    /**
+     * Constructor
+     * @param dataSourceType Data source type of the stream.
+     */
+    public PipelineMetrics(String dataSourceType) {
+        this.dataSourceType = dataSourceType;
+    }
+
+    public String getDataSourceType() {
+        return dataSourceType;
+    }
+
+    /** A sensor event reached the stream. */
+    public void onReceived() {
+        received.incrementAndGet();
+    }
+
+    /** The decimator produced a sample and it was queued. */
+    public void onAccepted() {
+        accepted.incrementAndGet();
+    }
+
+    /** Samples were discarded because the queue or the spool was full. */
+    public void onDropped(int count) {
+        dropped.addAndGet(count);
+    }
+
+    /** Samples were written to the spool. */
+    public void onSpooled(int count) {
+        spooled.addAndGet(count);
+    }
+
+    /** DataKit rejected an insert. */
+    public void onInsertFailed() {
+        failedInserts.incrementAndGet();
+    }
+
+    /**
+     * DataKit accepted a batch.
+     * @param batch The batch, with timestamps in milliseconds since the epoch.
+     * @param nowMillis Current time in milliseconds since the epoch.
+     */
+    public void onInserted(SampleBuffer batch, long nowMillis) {
+        int size = batch.size();
+        inserted.addAndGet(size);
+        batchSizes.record(size);
+        for (int i = 0; i < size; i++)
+            latency.record(nowMillis - batch.getTimestamp(i));
+    }
+
+    /**
+     * @return The current values of every counter and histogram.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Clears every counter and histogram.
+     */
+    public void reset() {
+        received.set(0);
+        accepted.set(0);
+        dropped.set(0);
+        inserted.set(0);
+        spooled.set(0);
+        failedInserts.set(0);
+        latency.reset();
+        batchSizes.reset();
+    }
+
+    /**
+     * Values of a <code>PipelineMetrics</code> at one point in time. The counters are read one
+     * after the other while samples keep moving, so stages can be off by the samples in flight.
+     */
+    public static class Snapshot {
+        private final String dataSourceType;
+        private final long received;
+        private final long accepted;
+        private final long dropped;
+        private final long inserted;
+        private final long spooled;
+        private final long failedInserts;
+        private final LatencyHistogram.Snapshot latency;
+        private final LatencyHistogram.Snapshot batchSizes;
+
+        private Snapshot(PipelineMetrics metrics) {
+            dataSourceType = metrics.dataSourceType;
+            // Later stages first, so no stage appears to hold more than the one before it
+            inserted = metrics.inserted.get();
+            dropped = metrics.dropped.get();
+            spooled = metrics.spooled.get();
+            failedInserts = metrics.failedInserts.get();
+            accepted = metrics.accepted.get();
+            received = metrics.received.get();
+            latency = metrics.latency.snapshot();
+            batchSizes = metrics.batchSizes.snapshot();
+        }
+
+        public String getDataSourceType() {
+            return dataSourceType;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        /**
+         * @return Sensor events the decimator did not turn into samples.
+         */
+        public long getDecimated() {
+            return Math.max(0, received - accepted);
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getInserted() {
+            return inserted;
+        }
+
+        public long getSpooled() {
+            return spooled;
+        }
+
+        public long getFailedInserts() {
+            return failedInserts;
+        }
+
+        /**
+         * @return Milliseconds from sensor timestamp to DataKit acknowledgement.
+         */
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        public LatencyHistogram.Snapshot getBatchSizes() {
+            return batchSizes;
+        }
+
+        /**
+         * @return The values in the order used when a snapshot is stored in DataKit: received,
+         * accepted, decimated, dropped, inserted, spooled, failed inserts, mean batch size and
+         * latency at the 50th, 90th and 99th percentile and maximum.
+         */
+        public double[] toArray() {
+            return new double[]{received, accepted, getDecimated(), dropped, inserted, spooled,
+                    failedInserts, batchSizes.getMean(), latency.getValueAtPercentile(50),
+                    latency.getValueAtPercentile(90), latency.getValueAtPercentile(99),
+                    latency.getMax()};
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: received %d, decimated %d, accepted %d, dropped %d, "
+                            + "inserted %d, spooled %d, failed inserts %d, batch %.1f, "
+                            + "latency p50 %d ms p99 %d ms max %d ms",
+                    dataSourceType, received, getDecimated(), accepted, dropped, inserted, spooled,
+                    failedInserts, batchSizes.getMean(), latency.getValueAtPercentile(50),
+                    latency.getValueAtPercentile(99), latency.getMax());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.exception.DataKitException;
+
+/**
+ * Reads a query result page by page instead of loading it all at once. Pages are fetched on an
+ * <code>Executor</code> while the previous page is being read, and at most <code>maxPages</code>
+ * pages, including the one being read, are held in memory. The next page is only fetched when
+ * there is room for it, so an idle cursor does not hold an executor thread.
+ * <p>
+ * <code>hasNext()</code> and <code>next()</code> wait for the next page if it has not arrived yet,
+ * so they must not be called on the main thread. A cursor is read by one thread at a time.
+ * </p>
+ * @param <T> Row type.
+ */
+public class QueryCursor<T> {
+
+    /**
+     * Fetches one page of rows with keys greater than <code>afterKey</code>, in key order.
+     * @param <T> Row type.
+     */
+    public interface PageSource<T> {
+        ArrayList<T> fetch(long afterKey, int limit) throws DataKitException;
+        long keyOf(T row);
+    }
+
+    private final PageSource<T> source;
+    private final int pageSize;
+    private final int maxPages;
+    private final Executor executor;
+
+    // Fetch state, guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pageArrived = lock.newCondition();
+    private final ArrayDeque<ArrayList<T>> pages = new ArrayDeque<>();
+    private long nextKey;
+    private boolean fetching;
+    private boolean exhausted;
+    private boolean closed;
+    private DataKitException error;
+
+    // Page being read, only used by the reading thread
+    private ArrayList<T> current = null;
+    private int position;
+
+    /**
+     * Creates the cursor and starts fetching the first page.
+     * @param source Fetches the pages.
+     * @param afterKey Rows with keys up to and including this one are skipped.
+     * @param pageSize Number of rows per page.
+     * @param maxPages Number of pages held in memory, at least two so that one can be prefetched.
+     * @param executor Runs the fetches.
+     */
+    public QueryCursor(PageSource<T> source, long afterKey, int pageSize, int maxPages, Executor executor) {
+        if (pageSize <= 0 || maxPages < 2)
+            throw new IllegalArgumentException("invalid page size " + pageSize + " or page count " + maxPages);
+        this.source = source;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.executor = executor;
+        nextKey = afterKey;
+        lock.lock();
+        try {
+            fetchIfRoom();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next page if the current one has been read.
+     * @return Whether another row is available.
+     * @throws DataKitException When fetching a page failed.
+     */
+    public boolean hasNext() throws DataKitException {
+        if (current != null && position < current.size())
+            return true;
+        lock.lock();
+        try {
+            current = null;
+            while (pages.isEmpty() && !exhausted && !closed && error == null)
+                pageArrived.awaitUninterruptibly();
+            if (!pages.isEmpty()) {
+                current = pages.poll();
+                position = 0;
+                fetchIfRoom();
+                return true;
+            }
+            if (error != null && !closed)
+                throw error;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The next row.
+     * @throws DataKitException When fetching a page failed.
+     */
+    public T next() throws DataKitException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return current.get(position++);
+    }
+
+    /**
+     * @return Key of the last row fetched so far. A new cursor started from it continues where
+     * this one stopped fetching.
+     */
+    public long getLastFetchedKey() {
+        lock.lock();
+        try {
+            return nextKey;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the buffered pages. A fetch that is in progress completes but its page is dropped.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pages.clear();
+            current = null;
+            pageArrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called with the lock held. The page being read counts towards <code>maxPages</code>.
+     */
+    private void fetchIfRoom() {
+        int held = pages.size() + (current != null ? 1 : 0);
+        if (fetching || exhausted || closed || error != null || held >= maxPages)
+            return;
+        fetching = true;
+        final long afterKey = nextKey;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fetch(afterKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fetching = false;
+            error = toDataKitException(e);
+            pageArrived.signalAll();
+        }
+    }
+
+    /**
+     * Always clears <code>fetching</code> and wakes the reader, whatever the source throws.
+     * Anything other than a <code>DataKitException</code> is reported to the reader wrapped in one.
+     */
+    private void fetch(long afterKey) {
+        ArrayList<T> page = null;
+        long lastKey = 0;
+        DataKitException failure = null;
+        try {
+            page = source.fetch(afterKey, pageSize);
+            if (page != null && !page.isEmpty())
+                lastKey = source.keyOf(page.get(page.size() - 1));
+        } catch (DataKitException e) {
+            failure = e;
+        } catch (Throwable t) {
+            failure = toDataKitException(t);
+            if (t instanceof Error)
+                throw (Error) t;
+        } finally {
+            lock.lock();
+            try {
+                fetching = false;
+                if (failure != null)
+                    error = failure;
+                else if (page == null || page.isEmpty())
+                    exhausted = true;
+                else {
+                    nextKey = lastKey;
+                    if (page.size() < pageSize)
+                        exhausted = true;
+                    if (!closed)
+                        pages.add(page);
+                }
+                pageArrived.signalAll();
+                fetchIfRoom();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static DataKitException toDataKitException(Throwable t) {
+        DataKitException e = new DataKitException("query failed: " + t);
+        e.initCause(t);
+        return e;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+/**
+ * Reads blocks written by <code>SampleBlockEncoder</code>.
+ */
+public class SampleBlockDecoder {
+
+    private SampleBlockDecoder() {}
+
+    /**
+     * @param block Encoded block.
+     * @return Number of samples in the block.
+     */
+    public static int count(byte[] block) {
+        checkVersion(block);
+        return (block[3] & 0xff) << 8 | (block[4] & 0xff);
+    }
+
+    /**
+     * @param block Encoded block.
+     * @return Number of values per sample.
+     */
+    public static int dimension(byte[] block) {
+        checkVersion(block);
+        return block[2];
+    }
+
+    /**
+     * Appends the samples of a block to a buffer. Axes beyond the block's dimension are zero.
+     * @param block Encoded block.
+     * @param destination Buffer with room for <code>count(block)</code> samples.
+     * @return Number of samples decoded.
+     */
+    public static int decode(byte[] block, SampleBuffer destination) {
+        int count = count(block);
+        if (destination.capacity() - destination.size() < count)
+            throw new IllegalArgumentException("buffer too small for " + count + " samples");
+        SampleBlockEncoder.Mode mode = SampleBlockEncoder.Mode.values()[block[1]];
+        int dimension = block[2];
+        int[] position = {SampleBlockEncoder.HEADER_SIZE};
+        double quantum = 0;
+        if (mode == SampleBlockEncoder.Mode.QUANTIZED)
+            quantum = Double.longBitsToDouble(readLong(block, position));
+        long timestamp = readLong(block, position);
+        long delta = 0;
+        long[] previous = new long[3];
+        double[] values = new double[3];
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                delta += unzigzag(readVarLong(block, position));
+                timestamp += delta;
+            }
+            for (int axis = 0; axis < dimension; axis++) {
+                if (mode == SampleBlockEncoder.Mode.XOR) {
+                    previous[axis] ^= readXor(block, position);
+                    values[axis] = Double.longBitsToDouble(previous[axis]);
+                } else {
+                    previous[axis] += unzigzag(readVarLong(block, position));
+                    values[axis] = previous[axis] * quantum;
+                }
+            }
+            destination.add(timestamp, values[0], values[1], values[2]);
+        }
+        return count;
+    }
+
+    private static void checkVersion(byte[] block) {
+        if (block.length < SampleBlockEncoder.HEADER_SIZE || block[0] != SampleBlockEncoder.VERSION)
+            throw new IllegalArgumentException("not a sample block");
+    }
+
+    private static long readXor(byte[] block, int[] position) {
+        int control = block[position[0]++] & 0xff;
+        if (control == 0)
+            return 0;
+        int leading = (control >>> 3) & 0x0f;
+        int trailing = control & 0x07;
+        long xor = 0;
+        for (int shift = 56 - 8 * leading; shift >= 8 * trailing; shift -= 8)
+            xor |= (long) (block[position[0]++] & 0xff) << shift;
+        return xor;
+    }
+
+    private static long readVarLong(byte[] block, int[] position) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = block[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            shift += 7;
+        }
+    }
+
+    private static long readLong(byte[] block, int[] position) {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = value << 8 | (block[position[0]++] & 0xff);
+        return value;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
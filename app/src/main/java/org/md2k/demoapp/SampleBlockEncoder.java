@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+/**
+ * Packs samples into compact binary blocks of at most <code>blockSize</code> bytes, so that a
+ * block can be stored as a single payload instead of one row or CSV line per sample.
+ * <p>
+ * Timestamps are stored as zigzag varints of their delta of deltas, which is zero or close to it
+ * for a regular stream. Values are stored in one of two ways:
+ * <ul>
+ * <li><code>XOR</code>: lossless. Each value is XORed with the previous value of the same axis and
+ * only the non-zero middle bytes are written behind a control byte, a byte aligned form of the
+ * Gorilla encoding.</li>
+ * <li><code>QUANTIZED</code>: each value is rounded to a multiple of <code>quantum</code> and the
+ * delta to the previous value of the same axis is written as a zigzag varint.</li>
+ * </ul>
+ * Block layout: version, mode, dimension, sample count (2 bytes), quantum (8 bytes, quantized
+ * mode only), first timestamp (8 bytes), then the samples. <code>SampleBlockDecoder</code> reads
+ * it back. This class is not thread safe and does not allocate after construction.
+ * </p>
+ */
+public class SampleBlockEncoder {
+    static final int VERSION = 1;
+    static final int MAX_COUNT = 0xffff;
+    static final int HEADER_SIZE = 5;
+    // Worst case per sample: 10 byte timestamp varint and 10 bytes per value
+    private static final int MAX_SAMPLE_SIZE = 40;
+
+    /**
+     * How values are encoded.
+     */
+    public enum Mode {
+        XOR,
+        QUANTIZED
+    }
+
+    /**
+     * Receives sealed blocks.
+     */
+    public interface BlockListener {
+        /**
+         * @param block Encoded block. The array is reused once this method returns.
+         * @param length Number of bytes used in <code>block</code>.
+         * @param firstTimestamp Timestamp of the first sample in the block.
+         * @param count Number of samples in the block.
+         */
+        void onBlock(byte[] block, int length, long firstTimestamp, int count);
+    }
+
+    private final byte[] block;
+    private final int dimension;
+    private final Mode mode;
+    private final double quantum;
+    private final BlockListener listener;
+
+    private int position;
+    private int count;
+    private long firstTimestamp;
+    private long previousTimestamp;
+    private long previousDelta;
+    private final long[] previous = new long[3];
+
+    /**
+     * Constructor
+     * @param blockSize Maximum size of a block in bytes.
+     * @param dimension Number of values per sample, at most three.
+     * @param mode Value encoding.
+     * @param quantum Resolution of <code>QUANTIZED</code> values. Ignored for <code>XOR</code>.
+     * @param listener Receives the blocks.
+     */
+    public SampleBlockEncoder(int blockSize, int dimension, Mode mode, double quantum, BlockListener listener) {
+        if (blockSize < HEADER_SIZE + 16 + MAX_SAMPLE_SIZE || dimension < 1 || dimension > 3)
+            throw new IllegalArgumentException("invalid block size " + blockSize + " or dimension " + dimension);
+        if (mode == Mode.QUANTIZED && !(quantum > 0))
+            throw new IllegalArgumentException("invalid quantum " + quantum);
+        block = new byte[blockSize];
+        this.dimension = dimension;
+        this.mode = mode;
+        this.quantum = quantum;
+        this.listener = listener;
+    }
+
+    /**
+     * @return Number of samples in the block that is being filled.
+     */
+    public int getPendingCount() {
+        return count;
+    }
+
+    /**
+     * @return Timestamp of the first sample in the block that is being filled.
+     */
+    public long getPendingFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * Adds every sample of a batch.
+     */
+    public void add(SampleBuffer batch) {
+        for (int i = 0; i < batch.size(); i++)
+            add(batch.getTimestamp(i), batch.getX(i), batch.getY(i), batch.getZ(i));
+    }
+
+    /**
+     * Adds a sample, first sealing the current block if the sample might not fit.
+     */
+    public void add(long timestamp, double x, double y, double z) {
+        if (count > 0 && (position + MAX_SAMPLE_SIZE > block.length || count == MAX_COUNT))
+            flush();
+        if (count == 0)
+            startBlock(timestamp);
+        else {
+            long delta = timestamp - previousTimestamp;
+            position = writeVarLong(block, position, zigzag(delta - previousDelta));
+            previousDelta = delta;
+            previousTimestamp = timestamp;
+        }
+        writeValue(0, x);
+        if (dimension > 1)
+            writeValue(1, y);
+        if (dimension > 2)
+            writeValue(2, z);
+        count++;
+    }
+
+    /**
+     * Seals the current block, if it holds any samples, and hands it to the listener.
+     */
+    public void flush() {
+        if (count == 0)
+            return;
+        block[3] = (byte) (count >>> 8);
+        block[4] = (byte) count;
+        listener.onBlock(block, position, firstTimestamp, count);
+        count = 0;
+    }
+
+    private void startBlock(long timestamp) {
+        block[0] = VERSION;
+        block[1] = (byte) mode.ordinal();
+        block[2] = (byte) dimension;
+        position = HEADER_SIZE;
+        if (mode == Mode.QUANTIZED)
+            position = writeLong(block, position, Double.doubleToRawLongBits(quantum));
+        position = writeLong(block, position, timestamp);
+        firstTimestamp = timestamp;
+        previousTimestamp = timestamp;
+        previousDelta = 0;
+        previous[0] = previous[1] = previous[2] = 0;
+    }
+
+    private void writeValue(int axis, double value) {
+        if (mode == Mode.XOR) {
+            long bits = Double.doubleToRawLongBits(value);
+            position = writeXor(block, position, bits ^ previous[axis]);
+            previous[axis] = bits;
+        } else {
+            long quantized = Math.round(value / quantum);
+            position = writeVarLong(block, position, zigzag(quantized - previous[axis]));
+            previous[axis] = quantized;
+        }
+    }
+
+    /**
+     * Writes 0 for an unchanged value, otherwise a control byte <code>1LLLLTTT</code> holding the
+     * number of leading and trailing zero bytes, followed by the bytes in between.
+     */
+    static int writeXor(byte[] buffer, int position, long xor) {
+        if (xor == 0) {
+            buffer[position++] = 0;
+            return position;
+        }
+        int leading = Long.numberOfLeadingZeros(xor) / 8;
+        int trailing = Long.numberOfTrailingZeros(xor) / 8;
+        buffer[position++] = (byte) (0x80 | leading << 3 | trailing);
+        for (int shift = 56 - 8 * leading; shift >= 8 * trailing; shift -= 8)
+            buffer[position++] = (byte) (xor >>> shift);
+        return position;
+    }
+
+    static int writeVarLong(byte[] buffer, int position, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    static int writeLong(byte[] buffer, int position, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8)
+            buffer[position++] = (byte) (value >>> shift);
+        return position;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+/**
+ * Ring buffer of three axis samples stored in parallel primitive arrays. The arrays are allocated
+ * once, so adding, removing and copying samples never allocates. Index 0 is always the oldest
+ * sample in the buffer. This class is not thread safe.
+ */
+public class SampleBuffer {
+    private final long[] timestamps;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private int head;
+    private int size;
+
+    /**
+     * Constructor
+     * @param capacity Maximum number of samples the buffer holds.
+     */
+    public SampleBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        timestamps = new long[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == timestamps.length;
+    }
+
+    /**
+     * Appends a sample.
+     * @return False if the buffer is full and the sample was not added.
+     */
+    public boolean add(long timestamp, double x, double y, double z) {
+        if (size == timestamps.length)
+            return false;
+        int i = index(size);
+        timestamps[i] = timestamp;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes the oldest sample, if any.
+     */
+    public void removeOldest() {
+        if (size == 0)
+            return;
+        head = index(1);
+        size--;
+    }
+
+    /**
+     * Removes up to <code>count</code> of the newest samples.
+     */
+    public void removeNewest(int count) {
+        size -= Math.max(0, Math.min(count, size));
+    }
+
+    /**
+     * Moves up to <code>max</code> of the oldest samples to the end of <code>destination</code>.
+     * @return Number of samples moved.
+     */
+    public int drainTo(SampleBuffer destination, int max) {
+        int n = Math.min(Math.min(max, size), destination.capacity() - destination.size);
+        for (int k = 0; k < n; k++) {
+            int i = head;
+            destination.add(timestamps[i], x[i], y[i], z[i]);
+            head = index(1);
+        }
+        size -= n;
+        return n;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[checkedIndex(i)];
+    }
+
+    public double getX(int i) {
+        return x[checkedIndex(i)];
+    }
+
+    public double getY(int i) {
+        return y[checkedIndex(i)];
+    }
+
+    public double getZ(int i) {
+        return z[checkedIndex(i)];
+    }
+
+    private int checkedIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        return index(i);
+    }
+
+    private int index(int i) {
+        int j = head + i;
+        return j >= timestamps.length ? j - timestamps.length : j;
+    }
+}
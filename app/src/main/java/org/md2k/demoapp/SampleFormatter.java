@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+/**
+ * Writes samples as text into a reusable <code>char[]</code>, without creating strings. Values are
+ * written with a fixed number of decimals, which is all a live display needs.
+ */
+public class SampleFormatter {
+    private static final int DECIMALS = 4;
+    private static final long SCALE = 10000; // 10 ^ DECIMALS
+    private static final double MAX_FIXED = 1e14; // larger values are written as "inf"
+
+    /**
+     * Longest text <code>appendSample()</code> writes for three values.
+     */
+    public static final int MAX_SAMPLE_LENGTH = 3 * 21 + 6;
+
+    private SampleFormatter() {}
+
+    /**
+     * Writes <code>[x, y, z]</code>.
+     * @param buffer Destination, at least <code>position + MAX_SAMPLE_LENGTH</code> long.
+     * @param position Index of the first character to write.
+     * @return Index after the last character written.
+     */
+    public static int appendSample(char[] buffer, int position, double x, double y, double z) {
+        buffer[position++] = '[';
+        position = appendDouble(buffer, position, x);
+        buffer[position++] = ',';
+        buffer[position++] = ' ';
+        position = appendDouble(buffer, position, y);
+        buffer[position++] = ',';
+        buffer[position++] = ' ';
+        position = appendDouble(buffer, position, z);
+        buffer[position++] = ']';
+        return position;
+    }
+
+    /**
+     * Writes a value with <code>DECIMALS</code> decimals. At most 21 characters are written.
+     * @return Index after the last character written.
+     */
+    public static int appendDouble(char[] buffer, int position, double value) {
+        if (Double.isNaN(value))
+            return appendText(buffer, position, "NaN");
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        if (value >= MAX_FIXED)
+            return appendText(buffer, position, "inf");
+        long scaled = Math.round(value * SCALE);
+        position = appendLong(buffer, position, scaled / SCALE);
+        buffer[position++] = '.';
+        long fraction = scaled % SCALE;
+        for (long divisor = SCALE / 10; divisor > 0; divisor /= 10) {
+            buffer[position++] = (char) ('0' + fraction / divisor);
+            fraction %= divisor;
+        }
+        return position;
+    }
+
+    private static int appendLong(char[] buffer, int position, long value) {
+        int start = position;
+        do {
+            buffer[position++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // Digits were written least significant first
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+        return position;
+    }
+
+    private static int appendText(char[] buffer, int position, String text) {
+        for (int i = 0; i < text.length(); i++)
+            buffer[position++] = text.charAt(i);
+        return position;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Android imports
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+// Java imports
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows the latest sample of a stream in a <code>TextView</code>. Samples may arrive on any thread
+ * and at any rate. Only the newest one is kept, and the view is updated at most once per display
+ * frame from a <code>Choreographer</code> callback. The text is formatted into a reused buffer.
+ * Must be created on the main thread.
+ */
+public class SampleRenderer implements Choreographer.FrameCallback {
+    private final TextView view;
+    private final Choreographer choreographer;
+    private final Looper mainLooper;
+    private final Handler mainHandler;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final char[] text = new char[SampleFormatter.MAX_SAMPLE_LENGTH];
+
+    // Latest sample. A frame may show axes of two consecutive samples, which is harmless here.
+    private volatile double x, y, z;
+    private volatile boolean hasSample;
+
+    /**
+     * Constructor
+     * @param view View the samples are shown in.
+     */
+    public SampleRenderer(TextView view) {
+        this.view = view;
+        choreographer = Choreographer.getInstance();
+        mainLooper = Looper.getMainLooper();
+        mainHandler = new Handler(mainLooper);
+    }
+
+    /**
+     * Records a sample and schedules a frame if none is pending. Does not allocate.
+     */
+    public void update(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        hasSample = true;
+        if (scheduled.compareAndSet(false, true)) {
+            if (Looper.myLooper() == mainLooper)
+                choreographer.postFrameCallback(this);
+            else
+                mainHandler.post(postFrame);
+        }
+    }
+
+    /**
+     * Empties the view and drops the sample that is waiting to be shown. Main thread only.
+     */
+    public void clear() {
+        hasSample = false;
+        view.setText("");
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled.set(false);
+        if (!hasSample)
+            return;
+        int length = SampleFormatter.appendSample(text, 0, x, y, z);
+        view.setText(text, 0, length);
+    }
+
+    private final Runnable postFrame = new Runnable() {
+        @Override
+        public void run() {
+            choreographer.postFrameCallback(SampleRenderer.this);
+        }
+    };
+}
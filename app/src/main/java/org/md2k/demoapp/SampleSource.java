@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+/**
+ * Produces raw sensor samples for a <code>CaptureStream</code> from somewhere other than an
+ * Android sensor, such as a generator or a recorded trace. Samples are delivered on the source's
+ * own thread, in timestamp order, like <code>SensorEventListener.onSensorChanged()</code>.
+ */
+public interface SampleSource {
+
+    /**
+     * Receives the samples of a source.
+     */
+    interface Listener {
+        /**
+         * @param timestampNanos Time the sample was taken, on the same clock as
+         *                       <code>SensorEvent.timestamp</code>.
+         * @param values Sample values. The array is reused after this method returns.
+         */
+        void onSample(long timestampNanos, float[] values);
+    }
+
+    /**
+     * Starts delivering samples.
+     * @param listener Receives the samples.
+     */
+    void start(Listener listener);
+
+    /**
+     * Stops delivering samples and waits until the source's thread has finished.
+     */
+    void stop();
+
+    /**
+     * @return Number of samples delivered since the last start.
+     */
+    long getDeliveredCount();
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append only queue of samples in a memory mapped file. Samples that could not be inserted into
+ * DataKit are appended here and replayed, oldest first, once DataKit accepts data again. Because
+ * the file is memory mapped, appended samples survive the process being killed.
+ * <p>
+ * The file is a header followed by a ring of fixed size records. The header holds two slots with
+ * the read and write positions, a sequence number and a check value, written alternately, so a
+ * header torn by a crash falls back to the previous state. Records are written before the write
+ * position is advanced, and the read position is only advanced by <code>commit()</code> after the
+ * replayed samples were accepted, so a crash loses at most the batch being appended and replays at
+ * most one batch twice.
+ * If the ring is full, new samples are dropped and counted.
+ * </p>
+ */
+public class SampleSpool {
+    private static final int MAGIC = 0x53504c31; // "SPL1"
+    private static final int OFFSET_CAPACITY = 4;
+    private static final int SLOT_OFFSET = 8;
+    private static final int SLOT_SIZE = 32; // sequence, read, write, check
+    private static final int HEADER_SIZE = SLOT_OFFSET + 2 * SLOT_SIZE;
+    private static final int RECORD_SIZE = 32; // timestamp, x, y, z
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long sequence;
+    private long readPosition;
+    private long writePosition;
+    private long droppedTotal;
+    private boolean recovered;
+
+    /**
+     * Opens a spool, creating the file if needed. Samples left in an existing file are kept.
+     * @param path File backing the spool.
+     * @param capacity Maximum number of samples held.
+     * @throws IOException When the file can not be created or mapped.
+     */
+    public SampleSpool(File path, int capacity) throws IOException {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        file = new RandomAccessFile(path, "rw");
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        this.capacity = capacity;
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(OFFSET_CAPACITY) == capacity) {
+            for (int slot = 0; slot < 2; slot++) {
+                int offset = SLOT_OFFSET + slot * SLOT_SIZE;
+                long seq = buffer.getLong(offset);
+                long read = buffer.getLong(offset + 8);
+                long write = buffer.getLong(offset + 16);
+                boolean valid = buffer.getLong(offset + 24) == check(seq, read, write)
+                        && read >= 0 && read <= write && write - read <= capacity;
+                if (valid && (!recovered || seq > sequence)) {
+                    sequence = seq;
+                    readPosition = read;
+                    writePosition = write;
+                    recovered = true;
+                }
+            }
+        }
+        if (!recovered) {
+            // New file, different capacity or both slots damaged: start empty
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(OFFSET_CAPACITY, capacity);
+            writeHeader();
+        }
+    }
+
+    /**
+     * @return Whether samples of an earlier session were found when the spool was opened.
+     */
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    public synchronized int size() {
+        return (int) (writePosition - readPosition);
+    }
+
+    public synchronized boolean isEmpty() {
+        return writePosition == readPosition;
+    }
+
+    /**
+     * @return Number of samples dropped because the spool was full.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedTotal;
+    }
+
+    /**
+     * Appends a batch. Samples that do not fit are dropped.
+     * @param batch Samples to append.
+     * @return Number of samples appended.
+     */
+    public int append(SampleBuffer batch) {
+        return append(batch, 0);
+    }
+
+    /**
+     * Appends the samples of a batch from an index on, such as the part of a batch that the sink
+     * did not insert. Samples that do not fit are dropped.
+     * @param batch Samples to append.
+     * @param from Index of the first sample to append.
+     * @return Number of samples appended.
+     */
+    public synchronized int append(SampleBuffer batch, int from) {
+        int count = batch.size() - from;
+        int n = Math.min(count, capacity - size());
+        for (int i = 0; i < n; i++) {
+            int offset = recordOffset(writePosition + i);
+            buffer.putLong(offset, batch.getTimestamp(from + i));
+            buffer.putDouble(offset + 8, batch.getX(from + i));
+            buffer.putDouble(offset + 16, batch.getY(from + i));
+            buffer.putDouble(offset + 24, batch.getZ(from + i));
+        }
+        writePosition += n;
+        droppedTotal += count - n;
+        writeHeader();
+        return n;
+    }
+
+    /**
+     * Copies the oldest samples without removing them.
+     * @param destination Buffer the samples are appended to.
+     * @param max Maximum number of samples to copy.
+     * @return Number of samples copied.
+     */
+    public synchronized int peek(SampleBuffer destination, int max) {
+        int n = Math.min(Math.min(max, size()), destination.capacity() - destination.size());
+        for (int i = 0; i < n; i++) {
+            int offset = recordOffset(readPosition + i);
+            destination.add(buffer.getLong(offset), buffer.getDouble(offset + 8),
+                    buffer.getDouble(offset + 16), buffer.getDouble(offset + 24));
+        }
+        return n;
+    }
+
+    /**
+     * Removes the oldest samples after they were inserted and writes the new position to disk.
+     * @param count Number of samples to remove, as returned by <code>peek()</code>.
+     */
+    public synchronized void commit(int count) {
+        readPosition += Math.min(count, size());
+        writeHeader();
+        buffer.force();
+    }
+
+    /**
+     * Writes all appended samples to disk.
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+    private int recordOffset(long position) {
+        return HEADER_SIZE + (int) (position % capacity) * RECORD_SIZE;
+    }
+
+    /**
+     * Writes the positions to the slot that does not hold the current state.
+     */
+    private void writeHeader() {
+        sequence++;
+        int offset = SLOT_OFFSET + (int) (sequence % 2) * SLOT_SIZE;
+        buffer.putLong(offset, sequence);
+        buffer.putLong(offset + 8, readPosition);
+        buffer.putLong(offset + 16, writePosition);
+        buffer.putLong(offset + 24, check(sequence, readPosition, writePosition));
+    }
+
+    private static long check(long sequence, long read, long write) {
+        return ((sequence * 31 + read) * 31 + write) ^ MAGIC;
+    }
+}
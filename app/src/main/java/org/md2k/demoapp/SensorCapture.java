@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Android imports
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures several sensors at once. Each sensor feeds its own <code>CaptureStream</code>, and all
+ * sensor callbacks run on a dedicated <code>HandlerThread</code> instead of the main looper.
+ * <p>
+ * With a non-zero maximum report latency, sensors that have a hardware FIFO collect events while
+ * the application processor sleeps and deliver them in bursts. The end of each burst is detected
+ * by a message queued behind it, and the stream then sends the burst's samples to DataKit at once
+ * rather than waking up again for the batch age. <code>stop()</code> flushes the FIFOs so no
+ * buffered event is lost.
+ * </p>
+ */
+public class SensorCapture {
+    private static final int OVERSAMPLING = 4; // sensor rate relative to the stream's sampling rate
+    private static final long FLUSH_TIMEOUT = 1000; // 1 second
+
+    private final SensorManager sensorManager;
+    private final ArrayList<StreamListener> listeners = new ArrayList<>();
+    private volatile HandlerThread thread = null; // isCapturing() is called from other threads
+    private int maxReportLatencyUs = 0;
+
+    /**
+     * Connects a sensor to its stream.
+     */
+    private static class StreamListener implements SensorEventListener2 {
+        final Sensor sensor;
+        final CaptureStream stream;
+        Handler handler;
+        boolean batched;
+        private boolean burstEndPending;
+        volatile CountDownLatch flushed;
+
+        StreamListener(Sensor sensor, CaptureStream stream) {
+            this.sensor = sensor;
+            this.stream = stream;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            stream.process(event.timestamp, event.values);
+            if (batched && !burstEndPending) {
+                burstEndPending = true;
+                handler.post(burstEnd);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            CountDownLatch latch = flushed;
+            if (latch != null)
+                latch.countDown();
+        }
+
+        /**
+         * Runs after the events that were delivered together with the one that posted it.
+         */
+        private final Runnable burstEnd = new Runnable() {
+            @Override
+            public void run() {
+                burstEndPending = false;
+                stream.endBurst();
+            }
+        };
+    }
+
+    /**
+     * Constructor
+     * @param sensorManager System sensor service.
+     */
+    public SensorCapture(SensorManager sensorManager) {
+        this.sensorManager = sensorManager;
+    }
+
+    /**
+     * Adds a stream if the device has the sensor it needs.
+     * @param config Stream description.
+     * @return The new stream, or null if the sensor is not available.
+     */
+    public CaptureStream addStream(StreamConfig config) {
+        Sensor sensor = sensorManager.getDefaultSensor(config.getSensorType());
+        if (sensor == null)
+            return null;
+        CaptureStream stream = new CaptureStream(config);
+        listeners.add(new StreamListener(sensor, stream));
+        return stream;
+    }
+
+    /**
+     * @return All streams, in the order they were added.
+     */
+    public ArrayList<CaptureStream> getStreams() {
+        ArrayList<CaptureStream> streams = new ArrayList<>(listeners.size());
+        for (StreamListener listener : listeners)
+            streams.add(listener.stream);
+        return streams;
+    }
+
+    /**
+     * @param dataSourceType DataKit data source type.
+     * @return The stream stored as that type, or null.
+     */
+    public CaptureStream getStream(String dataSourceType) {
+        for (StreamListener listener : listeners)
+            if (listener.stream.getConfig().getDataSourceType().equals(dataSourceType))
+                return listener.stream;
+        return null;
+    }
+
+    public boolean isCapturing() {
+        return thread != null;
+    }
+
+    /**
+     * Sets how long sensors may hold events in their hardware FIFO before delivering them. Applies
+     * from the next <code>start()</code>.
+     * @param maxReportLatencyUs Latency in microseconds, or 0 to deliver every event immediately.
+     */
+    public void setMaxReportLatencyUs(int maxReportLatencyUs) {
+        this.maxReportLatencyUs = maxReportLatencyUs;
+    }
+
+    public int getMaxReportLatencyUs() {
+        return maxReportLatencyUs;
+    }
+
+    /**
+     * Registers a sensor listener for every running stream. The sensors are sampled faster than
+     * their streams' sampling rates so the decimators have input to filter.
+     * @return Whether any sensor was registered.
+     */
+    public boolean start() {
+        if (thread != null)
+            return true;
+        thread = new HandlerThread("SensorCapture", Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        thread.start();
+        Handler handler = new Handler(thread.getLooper());
+        boolean registered = false;
+        for (StreamListener listener : listeners) {
+            if (!listener.stream.isRunning())
+                continue;
+            int samplingPeriodUs = (int) (1000000 / (listener.stream.getSamplingRate() * OVERSAMPLING));
+            listener.handler = handler;
+            listener.batched = maxReportLatencyUs > 0 && listener.sensor.getFifoMaxEventCount() > 0;
+            registered |= sensorManager.registerListener(listener, listener.sensor, samplingPeriodUs,
+                    maxReportLatencyUs, handler);
+        }
+        if (!registered)
+            stop();
+        return registered;
+    }
+
+    /**
+     * Flushes the sensors' FIFOs, waits up to <code>FLUSH_TIMEOUT</code> until the flushed events
+     * have been processed and unregisters all sensor listeners. Events already delivered to the
+     * capture thread are still processed, and this method returns once the capture thread has
+     * ended, so no stream receives samples afterwards. Blocks, so it should not be called on the
+     * main thread, and must not be called on the capture thread.
+     */
+    public void stop() {
+        if (thread == null)
+            return;
+        CountDownLatch flushed = new CountDownLatch(listeners.size());
+        for (StreamListener listener : listeners) {
+            listener.flushed = flushed;
+            // Fails for listeners that were not registered, which have nothing to flush
+            if (!sensorManager.flush(listener))
+                flushed.countDown();
+        }
+        try {
+            if (!flushed.await(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS))
+                Log.w("SensorCapture", "flush timed out, buffered events may be lost");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (StreamListener listener : listeners) {
+            sensorManager.unregisterListener(listener, listener.sensor);
+            listener.flushed = null;
+        }
+        thread.quitSafely();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        thread = null;
+    }
+}
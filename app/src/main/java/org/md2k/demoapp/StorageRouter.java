@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Chooses between <code>insert()</code>, which stores rows in DataKit's database where they are
+ * quick to query, and <code>insertHighFrequency()</code>, which appends to gzipped files that keep
+ * the database small. In <code>AUTO</code> mode the choice follows the stream's measured payload
+ * rate: it moves to the high frequency path above <code>highFrequencyAbove</code> bytes per second
+ * and back to the database below <code>databaseBelow</code>, each only after the rate has stayed on
+ * that side for <code>dwellMillis</code>, so a stream near a threshold does not flap.
+ * <p>
+ * Every change of path is kept as a <code>Segment</code>, so readers know where each time range
+ * was stored, and <code>getRoute(long, long)</code> tells a query whether a time range is in the
+ * database at all. With <code>open()</code>, the start of each segment is also appended to a file,
+ * so the segments of earlier sessions are known after a restart. Replayed samples are stored
+ * through the path that was in use when they were taken and are not measured, because their old
+ * timestamps would restart the rate measurement.
+ * </p>
+ * <p>
+ * <code>route()</code> and <code>routeReplayed()</code> are called from the pipeline's worker
+ * thread, the other methods from any thread.
+ * </p>
+ */
+public class StorageRouter {
+    private static final long MEASURE_WINDOW = 5000; // 5 seconds
+    private static final int RECORD_SIZE = 9; // route ordinal and start timestamp
+
+    /**
+     * How the path is chosen.
+     */
+    public enum Mode {
+        AUTO,
+        DATABASE,
+        HIGH_FREQUENCY
+    }
+
+    /**
+     * Storage path of a sample.
+     */
+    public enum Route {
+        DATABASE,
+        HIGH_FREQUENCY
+    }
+
+    /**
+     * Notified on the pipeline's worker thread when the path changes.
+     */
+    public interface OnRouteChangedListener {
+        void onRouteChanged(StorageRouter router, Segment closed);
+    }
+
+    /**
+     * Time range of samples that were stored through one path.
+     */
+    public static class Segment {
+        private final Route route;
+        private final long start;
+        private final long end;
+
+        Segment(Route route, long start, long end) {
+            this.route = route;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Route getRoute() {
+            return route;
+        }
+
+        /**
+         * @return Timestamp of the first sample, in milliseconds since the epoch.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return Timestamp of the last sample, in milliseconds since the epoch. For a segment of
+         * an earlier session, the time before the next segment started, or
+         * <code>Long.MAX_VALUE</code> if no segment has started since.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return route + " " + start + " to " + end;
+        }
+    }
+
+    private final String dataSourceType;
+    private final int bytesPerSample;
+    private final double highFrequencyAbove;
+    private final double databaseBelow;
+    private final long dwellMillis;
+    private volatile Mode mode = Mode.AUTO;
+    private volatile OnRouteChangedListener listener;
+
+    // Guarded by this
+    private Route route = Route.DATABASE;
+    private Route autoRoute = Route.DATABASE;
+    private double bytesPerSecond = -1;
+    private long windowStart = Long.MIN_VALUE;
+    private long windowSamples;
+    private long crossedAt = Long.MIN_VALUE;
+    private long segmentStart = Long.MIN_VALUE;
+    private long lastTimestamp;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private File segmentFile = null;
+
+    /**
+     * Constructor
+     * @param dataSourceType Data source type of the stream, for reporting.
+     * @param dimension Number of values per sample.
+     * @param highFrequencyAbove Payload rate, in bytes per second, above which the high frequency
+     *                           path is chosen.
+     * @param databaseBelow Payload rate, in bytes per second, below which the database is chosen.
+     * @param dwellMillis Time the rate must stay beyond a threshold before the path changes.
+     */
+    public StorageRouter(String dataSourceType, int dimension, double highFrequencyAbove,
+                         double databaseBelow, long dwellMillis) {
+        if (databaseBelow > highFrequencyAbove)
+            throw new IllegalArgumentException("thresholds overlap");
+        this.dataSourceType = dataSourceType;
+        // Timestamp and one double per value, as DataKit stores them
+        bytesPerSample = 8 * (1 + dimension);
+        this.highFrequencyAbove = highFrequencyAbove;
+        this.databaseBelow = databaseBelow;
+        this.dwellMillis = dwellMillis;
+    }
+
+    public String getDataSourceType() {
+        return dataSourceType;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Forces a path, or returns to <code>AUTO</code>. Applies from the next batch.
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public void setOnRouteChangedListener(OnRouteChangedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return Last measured payload rate in bytes per second, or -1 before the first measurement.
+     */
+    public synchronized double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return The current path.
+     */
+    public synchronized Route getRoute() {
+        return route;
+    }
+
+    /**
+     * Reads the segments recorded in a file by earlier sessions and appends new segments to it.
+     * Must be called before the first batch is routed.
+     * @param file File the segments are recorded in. Created if it does not exist.
+     * @throws IOException When the file exists but can not be read. Segments are then only kept
+     * in memory.
+     */
+    public synchronized void open(File file) throws IOException {
+        if (file.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                Route[] routes = Route.values();
+                Route previousRoute = null;
+                long previousStart = 0;
+                while (true) {
+                    Route route;
+                    long start;
+                    try {
+                        route = routes[in.readByte()];
+                        start = in.readLong();
+                    } catch (EOFException e) {
+                        break; // a record cut short by the process being killed is ignored
+                    }
+                    if (previousRoute != null)
+                        segments.add(new Segment(previousRoute, previousStart, start - 1));
+                    previousRoute = route;
+                    previousStart = start;
+                }
+                if (previousRoute != null)
+                    segments.add(new Segment(previousRoute, previousStart, Long.MAX_VALUE));
+            } finally {
+                in.close();
+            }
+            long records = segments.size();
+            if (file.length() != records * RECORD_SIZE)
+                truncate(file, records * RECORD_SIZE);
+        }
+        segmentFile = file;
+    }
+
+    /**
+     * @return The closed segments, oldest first, including those read by <code>open()</code>,
+     * followed by the open one if any samples were routed.
+     */
+    public synchronized ArrayList<Segment> getSegments() {
+        ArrayList<Segment> copy = new ArrayList<>(segments);
+        if (segmentStart != Long.MIN_VALUE)
+            copy.add(new Segment(route, segmentStart, lastTimestamp));
+        return copy;
+    }
+
+    /**
+     * Finds the path a time range was stored through.
+     * @param startTimestamp Start of the range in milliseconds since the epoch, included.
+     * @param endTimestamp End of the range in milliseconds since the epoch, included.
+     * @return The path, or null if the range is not within a single segment, so it may have been
+     * stored through either path.
+     */
+    public synchronized Route getRoute(long startTimestamp, long endTimestamp) {
+        if (segmentStart != Long.MIN_VALUE && startTimestamp >= segmentStart
+                && endTimestamp <= lastTimestamp)
+            return route;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (startTimestamp >= segment.getStart())
+                return endTimestamp <= segment.getEnd() ? segment.getRoute() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the path for a batch replayed from the spool: the path of the segment its first
+     * sample falls in, or the current path if there is none. The rate is not measured and no
+     * segment is started.
+     * @param batch Replayed samples, with timestamps in milliseconds since the epoch.
+     * @return The path for the whole batch.
+     */
+    public synchronized Route routeReplayed(SampleBuffer batch) {
+        if (batch.isEmpty())
+            return route;
+        long timestamp = batch.getTimestamp(0);
+        if (segmentStart != Long.MIN_VALUE && timestamp >= segmentStart)
+            return route;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (timestamp >= segment.getStart())
+                return segment.getRoute();
+        }
+        return route;
+    }
+
+    /**
+     * Measures a batch and returns the path it should be stored through.
+     * @param batch Samples to store, with timestamps in milliseconds since the epoch.
+     * @return The path for the whole batch.
+     */
+    public Route route(SampleBuffer batch) {
+        if (batch.isEmpty())
+            return getRoute();
+        Segment closed;
+        Route next;
+        synchronized (this) {
+            measure(batch);
+            switch (mode) {
+                case DATABASE:
+                    next = Route.DATABASE;
+                    break;
+                case HIGH_FREQUENCY:
+                    next = Route.HIGH_FREQUENCY;
+                    break;
+                default:
+                    next = autoRoute;
+            }
+            closed = null;
+            if (segmentStart == Long.MIN_VALUE) {
+                segmentStart = batch.getTimestamp(0);
+                endEarlierSession(segmentStart);
+                record(next, segmentStart);
+            } else if (next != route) {
+                closed = new Segment(route, segmentStart, lastTimestamp);
+                segments.add(closed);
+                segmentStart = batch.getTimestamp(0);
+                record(next, segmentStart);
+            }
+            route = next;
+            lastTimestamp = batch.getTimestamp(batch.size() - 1);
+        }
+        OnRouteChangedListener current = listener;
+        if (closed != null && current != null)
+            current.onRouteChanged(this, closed);
+        return next;
+    }
+
+    /**
+     * Must be called with the lock held. Ends the last segment read by <code>open()</code> before
+     * the first segment of this session.
+     */
+    private void endEarlierSession(long start) {
+        int last = segments.size() - 1;
+        if (last >= 0 && segments.get(last).getEnd() == Long.MAX_VALUE) {
+            Segment earlier = segments.get(last);
+            segments.set(last, new Segment(earlier.getRoute(), earlier.getStart(), start - 1));
+        }
+    }
+
+    /**
+     * Must be called with the lock held. Segments change at most once per <code>dwellMillis</code>
+     * in <code>AUTO</code> mode, so the file is opened for each record.
+     */
+    private void record(Route route, long start) {
+        if (segmentFile == null)
+            return;
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(segmentFile, true));
+            try {
+                out.writeByte(route.ordinal());
+                out.writeLong(start);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            // Keep routing, the segments of this session are still known in memory
+            segmentFile = null;
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.getChannel().truncate(length);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Updates the rate over windows of <code>MEASURE_WINDOW</code> of sample time and moves
+     * <code>autoRoute</code> once a threshold has been crossed for <code>dwellMillis</code>.
+     */
+    private void measure(SampleBuffer batch) {
+        long last = batch.getTimestamp(batch.size() - 1);
+        if (windowStart == Long.MIN_VALUE || last < windowStart) {
+            windowStart = batch.getTimestamp(0);
+            windowSamples = 0;
+        }
+        windowSamples += batch.size();
+        long elapsed = last - windowStart;
+        if (elapsed < MEASURE_WINDOW)
+            return;
+        bytesPerSecond = 1000.0 * (windowSamples - 1) * bytesPerSample / elapsed;
+        windowStart = last;
+        windowSamples = 1;
+
+        boolean crossed = autoRoute == Route.DATABASE ? bytesPerSecond > highFrequencyAbove
+                : bytesPerSecond < databaseBelow;
+        if (!crossed) {
+            crossedAt = Long.MIN_VALUE;
+            return;
+        }
+        if (crossedAt == Long.MIN_VALUE)
+            crossedAt = last - MEASURE_WINDOW;
+        if (last - crossedAt >= dwellMillis) {
+            autoRoute = autoRoute == Route.DATABASE ? Route.HIGH_FREQUENCY : Route.DATABASE;
+            crossedAt = Long.MIN_VALUE;
+        }
+    }
+}
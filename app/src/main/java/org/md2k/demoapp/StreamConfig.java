@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+/**
+ * Describes one captured sensor stream: which Android sensor it reads, which DataKit data source
+ * type it is stored as, how its values are scaled and the rate it is stored at.
+ */
+public class StreamConfig {
+    private final int sensorType;
+    private final String dataSourceType;
+    private final int dimension;
+    private final double scale;
+    private final double targetRate;
+    private final Decimator.Filter filter;
+    private final SampleBlockEncoder.Mode encoding;
+    private final double quantum;
+
+    /**
+     * Constructor
+     * @param sensorType Android sensor type, such as <code>Sensor.TYPE_ACCELEROMETER</code>.
+     * @param dataSourceType DataKit data source type, such as <code>DataSourceType.ACCELEROMETER</code>.
+     * @param dimension Number of values per sample, at most three.
+     * @param scale Factor every value is multiplied by.
+     * @param targetRate Rate the stream is stored at, in hertz.
+     * @param filter Anti-alias filter used to reach <code>targetRate</code>.
+     */
+    public StreamConfig(int sensorType, String dataSourceType, int dimension, double scale,
+                        double targetRate, Decimator.Filter filter) {
+        this(sensorType, dataSourceType, dimension, scale, targetRate, filter, null, 0);
+    }
+
+    /**
+     * Constructor for a stream stored as encoded blocks instead of one row per sample.
+     * @param sensorType Android sensor type, such as <code>Sensor.TYPE_ACCELEROMETER</code>.
+     * @param dataSourceType DataKit data source type, such as <code>DataSourceType.ACCELEROMETER</code>.
+     * @param dimension Number of values per sample, at most three.
+     * @param scale Factor every value is multiplied by.
+     * @param targetRate Rate the stream is stored at, in hertz.
+     * @param filter Anti-alias filter used to reach <code>targetRate</code>.
+     * @param encoding Value encoding of the blocks, or null to store one row per sample.
+     * @param quantum Resolution of <code>QUANTIZED</code> values, after scaling.
+     */
+    public StreamConfig(int sensorType, String dataSourceType, int dimension, double scale,
+                        double targetRate, Decimator.Filter filter, SampleBlockEncoder.Mode encoding,
+                        double quantum) {
+        if (dimension < 1 || dimension > 3)
+            throw new IllegalArgumentException("invalid dimension " + dimension);
+        this.sensorType = sensorType;
+        this.dataSourceType = dataSourceType;
+        this.dimension = dimension;
+        this.scale = scale;
+        this.targetRate = targetRate;
+        this.filter = filter;
+        this.encoding = encoding;
+        this.quantum = quantum;
+    }
+
+    public int getSensorType() {
+        return sensorType;
+    }
+
+    public String getDataSourceType() {
+        return dataSourceType;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    public Decimator.Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return Value encoding of the stream's blocks, or null if samples are stored one per row.
+     */
+    public SampleBlockEncoder.Mode getEncoding() {
+        return encoding;
+    }
+
+    public double getQuantum() {
+        return quantum;
+    }
+}
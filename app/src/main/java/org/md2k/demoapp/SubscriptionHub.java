@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fans the data of one subscription out to several consumers. The single producer, normally the
+ * DataKit callback, writes each item once into a ring buffer and never waits. Every consumer reads
+ * the ring from its own thread with its own cursor, so a slow consumer only falls behind itself.
+ * <p>
+ * A consumer that falls a full ring behind loses items according to its <code>Policy</code>:
+ * <code>DROP_OLDEST</code> skips to the oldest item still in the ring, <code>CONFLATE</code> only
+ * ever receives the newest item, which suits displays. Consumers only receive items published
+ * after they were added.
+ * </p>
+ * @param <T> Item type.
+ */
+public class SubscriptionHub<T> {
+
+    /**
+     * What a consumer receives when it is slower than the producer.
+     */
+    public enum Policy {
+        /** Every item, unless the consumer falls a full ring behind. */
+        DROP_OLDEST,
+        /** Only the newest item each time the consumer is ready. */
+        CONFLATE
+    }
+
+    /**
+     * Receives items on the consumer's own thread.
+     * @param <T> Item type.
+     */
+    public interface Consumer<T> {
+        void onReceived(T item);
+    }
+
+    private final AtomicReferenceArray<T> ring;
+    private final int mask;
+    private final AtomicLong published = new AtomicLong(); // sequence of the next item
+    private volatile Subscription<?>[] subscriptions = new Subscription<?>[0];
+
+    /**
+     * Constructor
+     * @param capacity Number of items in the ring, rounded up to a power of two.
+     */
+    public SubscriptionHub(int capacity) {
+        if (capacity < 2 || capacity > 1 << 30)
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        ring = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Publishes an item to every consumer. Must always be called from the same thread, or from
+     * threads that are otherwise serialized. Never blocks.
+     */
+    public void publish(T item) {
+        long sequence = published.get();
+        ring.set((int) (sequence & mask), item);
+        published.set(sequence + 1);
+        Subscription<?>[] current = subscriptions;
+        for (Subscription<?> subscription : current) {
+            if (subscription.parked)
+                LockSupport.unpark(subscription.thread);
+        }
+    }
+
+    /**
+     * Adds a consumer and starts its thread.
+     * @param name Name of the consumer's thread.
+     * @param policy What the consumer receives when it falls behind.
+     * @param consumer Receives the items.
+     * @return Handle to read the consumer's losses and remove it.
+     */
+    public synchronized Subscription<T> subscribe(String name, Policy policy, Consumer<? super T> consumer) {
+        Subscription<T> subscription = new Subscription<>(this, name, policy, consumer);
+        Subscription<?>[] current = subscriptions;
+        Subscription<?>[] added = new Subscription<?>[current.length + 1];
+        System.arraycopy(current, 0, added, 0, current.length);
+        added[current.length] = subscription;
+        subscriptions = added;
+        subscription.thread.start();
+        return subscription;
+    }
+
+    private synchronized void remove(Subscription<?> subscription) {
+        Subscription<?>[] current = subscriptions;
+        int index = -1;
+        for (int i = 0; i < current.length; i++)
+            if (current[i] == subscription)
+                index = i;
+        if (index < 0)
+            return;
+        Subscription<?>[] removed = new Subscription<?>[current.length - 1];
+        System.arraycopy(current, 0, removed, 0, index);
+        System.arraycopy(current, index + 1, removed, index, current.length - index - 1);
+        subscriptions = removed;
+    }
+
+    /**
+     * Removes every consumer.
+     */
+    public void close() {
+        for (Subscription<?> subscription : subscriptions)
+            subscription.close();
+    }
+
+    /**
+     * One consumer of the hub.
+     * @param <T> Item type.
+     */
+    public static class Subscription<T> {
+        private final SubscriptionHub<T> hub;
+        private final Policy policy;
+        private final Consumer<? super T> consumer;
+        private final Thread thread;
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean parked;
+        private volatile boolean closed;
+        private long cursor;
+
+        private Subscription(SubscriptionHub<T> hub, String name, Policy policy, Consumer<? super T> consumer) {
+            this.hub = hub;
+            cursor = hub.published.get();
+            this.policy = policy;
+            this.consumer = consumer;
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consume();
+                }
+            }, name);
+        }
+
+        /**
+         * @return Number of items the consumer skipped because it was behind.
+         */
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+
+        /**
+         * Stops delivering items. An item being delivered is allowed to finish.
+         */
+        public void close() {
+            closed = true;
+            hub.remove(this);
+            LockSupport.unpark(thread);
+        }
+
+        private void consume() {
+            int capacity = hub.mask + 1;
+            while (!closed) {
+                long end = hub.published.get();
+                if (cursor == end) {
+                    parked = true;
+                    if (hub.published.get() == cursor && !closed)
+                        LockSupport.park(this);
+                    parked = false;
+                    continue;
+                }
+                // The slot of the oldest readable item can be in the middle of being rewritten
+                long oldest = end - capacity + 1;
+                long next = policy == Policy.CONFLATE ? end - 1 : Math.max(cursor, oldest);
+                if (next > cursor)
+                    dropped.addAndGet(next - cursor);
+                cursor = next;
+                T item = hub.ring.get((int) (cursor & hub.mask));
+                // Still valid only if the producer has not started to overwrite the slot
+                if (hub.published.get() - cursor >= capacity)
+                    continue;
+                cursor++;
+                consumer.onReceived(item);
+            }
+        }
+    }
+}
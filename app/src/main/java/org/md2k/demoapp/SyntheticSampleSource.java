@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <code>SampleSource</code> that generates a waveform at a fixed rate, from 1 Hz to several kHz.
+ * The value of every sample depends only on its index and the seed, so runs are repeatable. The
+ * axes are the same waveform a third of a period apart.
+ * <p>
+ * In real time mode samples are paced by <code>System.nanoTime()</code>, which they are also
+ * timestamped with. If the listener falls behind, the late samples are delivered back to back so
+ * the rate stays exact. With real time off, samples are delivered as fast as the listener takes
+ * them, with timestamps still spaced at the configured rate, which is how saturation is found.
+ * </p>
+ */
+public class SyntheticSampleSource implements SampleSource {
+
+    /**
+     * Shape of the generated signal.
+     */
+    public enum Waveform {
+        SINE,
+        SQUARE,
+        /** Uniform noise from a hash of the seed and sample index. */
+        NOISE,
+        CONSTANT
+    }
+
+    private final Waveform waveform;
+    private final double rate;
+    private final double frequency;
+    private final double amplitude;
+    private final long seed;
+    private final int dimension;
+    private final long periodNanos;
+    private volatile boolean realTime = true;
+    private volatile long maxSamples = 0;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile long delivered;
+
+    /**
+     * Constructor
+     * @param waveform Shape of the signal.
+     * @param rate Samples per second.
+     * @param frequency Frequency of <code>SINE</code> and <code>SQUARE</code>, in hertz.
+     * @param amplitude Peak value.
+     * @param dimension Number of values per sample, at most three.
+     * @param seed Seed of <code>NOISE</code>.
+     */
+    public SyntheticSampleSource(Waveform waveform, double rate, double frequency, double amplitude,
+                                 int dimension, long seed) {
+        if (!(rate > 0) || dimension < 1 || dimension > 3)
+            throw new IllegalArgumentException("invalid rate " + rate + " or dimension " + dimension);
+        this.waveform = waveform;
+        this.rate = rate;
+        this.frequency = frequency;
+        this.amplitude = amplitude;
+        this.dimension = dimension;
+        this.seed = seed;
+        periodNanos = Math.round(1e9 / rate);
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param realTime Whether samples are paced at the rate. Applies from the next start.
+     */
+    public void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    /**
+     * @param maxSamples Number of samples after which the source stops by itself, or 0 for no limit.
+     */
+    public void setMaxSamples(long maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        if (thread != null)
+            return;
+        running = true;
+        delivered = 0;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                generate(listener);
+            }
+        }, "SyntheticSampleSource");
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread current = thread;
+        if (current == null)
+            return;
+        running = false;
+        LockSupport.unpark(current);
+        boolean interrupted = false;
+        while (current.isAlive()) {
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        thread = null;
+    }
+
+    /**
+     * @return Whether the source is delivering samples. False once <code>maxSamples</code> were
+     * delivered.
+     */
+    public boolean isRunning() {
+        Thread current = thread;
+        return current != null && current.isAlive();
+    }
+
+    @Override
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * Computes sample <code>index</code> of the waveform.
+     * @param values Receives the first <code>dimension</code> values.
+     */
+    public void fill(long index, float[] values) {
+        for (int axis = 0; axis < dimension; axis++) {
+            double phase = frequency * index / rate + axis / 3.0;
+            switch (waveform) {
+                case SINE:
+                    values[axis] = (float) (amplitude * Math.sin(2 * Math.PI * phase));
+                    break;
+                case SQUARE:
+                    values[axis] = (float) (phase - Math.floor(phase) < 0.5 ? amplitude : -amplitude);
+                    break;
+                case NOISE:
+                    long bits = mix(seed + 0x9e3779b97f4a7c15L * (3 * index + axis + 1));
+                    values[axis] = (float) (amplitude * ((bits >>> 11) * 0x1.0p-52 - 1));
+                    break;
+                default:
+                    values[axis] = (float) amplitude;
+            }
+        }
+    }
+
+    private void generate(Listener listener) {
+        float[] values = new float[dimension];
+        long limit = maxSamples;
+        boolean paced = realTime;
+        long start = System.nanoTime();
+        long index = 0;
+        while (running && (limit == 0 || index < limit)) {
+            long timestamp = start + index * periodNanos;
+            if (paced) {
+                long wait = timestamp - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+            }
+            fill(index, values);
+            listener.onSample(timestamp, values);
+            index++;
+            delivered = index;
+        }
+    }
+
+    /**
+     * SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
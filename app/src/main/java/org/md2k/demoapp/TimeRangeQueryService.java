@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// DataKitAPI imports
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.exception.DataKitException;
+
+/**
+ * Answers time window queries from chunks of fixed length that are cached between queries, so
+ * that views which pan back and forth over the same hours only query DataKit for the parts they
+ * have not seen yet. A window is split into chunks aligned to multiples of the chunk length, the
+ * missing chunks are fetched in parallel, and the result is cut to the window. Chunks are cached as
+ * <code>ColumnarResult</code>s, so a cached sample costs its primitive values and no objects.
+ * <p>
+ * The cache holds at most <code>maxCachedSamples</code> samples and drops the least recently used
+ * chunks first. A chunk that ended more than <code>settleMillis</code> before it was fetched is
+ * complete and is kept as it is. A newer chunk may still receive samples, so only the part after
+ * <code>settleMillis</code> before its last fetch is fetched again, and the chunk is extended with
+ * it. Samples written with older timestamps, such as those replayed from a spool, are only seen
+ * after the chunks they fall into are dropped with <code>invalidate()</code> or <code>clear()</code>.
+ * </p>
+ * <p>
+ * <code>query()</code> waits for the fetches, so it must not be called on the main thread. The
+ * fetches run on threads of this service, so calling it from a reader thread of
+ * <code>AsyncDataKit</code> is safe.
+ * </p>
+ */
+public class TimeRangeQueryService {
+
+    /**
+     * Fetches the samples of a data source with timestamps from <code>startTimestamp</code> to
+     * <code>endTimestamp</code>, both included, in timestamp order.
+     */
+    public interface ChunkSource {
+        ArrayList<DataType> fetch(String type, long startTimestamp, long endTimestamp) throws DataKitException;
+    }
+
+    private final ChunkSource source;
+    private final long chunkMillis;
+    private final long settleMillis;
+    private final int maxCachedSamples;
+    private final ExecutorService executor;
+
+    // Cache in least recently used order, guarded by itself
+    private final LinkedHashMap<ChunkKey, Chunk> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedSamples;
+    private long generation; // changed whenever chunks are dropped, so older fetches are not cached
+    private final ConcurrentHashMap<ChunkKey, FutureTask<Chunk>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger fetchCount = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param source Fetches the chunks.
+     * @param chunkMillis Length of a chunk in milliseconds.
+     * @param settleMillis How long after their timestamp samples may still be written, at least the
+     *                     largest batching delay of the insert pipelines.
+     * @param maxCachedSamples Number of samples the cache may hold.
+     * @param threads Number of chunks fetched at the same time.
+     */
+    public TimeRangeQueryService(ChunkSource source, long chunkMillis, long settleMillis,
+                                 int maxCachedSamples, int threads) {
+        if (chunkMillis <= 0 || settleMillis < 0 || maxCachedSamples < 0 || threads <= 0)
+            throw new IllegalArgumentException("invalid chunk length " + chunkMillis + ", settle time "
+                    + settleMillis + ", cache size " + maxCachedSamples + " or thread count " + threads);
+        this.source = source;
+        this.chunkMillis = chunkMillis;
+        this.settleMillis = settleMillis;
+        this.maxCachedSamples = maxCachedSamples;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "TimeRangeQuery-" + count.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Returns the samples of a data source in a time window, fetching only the chunks that are not
+     * cached or not complete.
+     * @param type Data source type.
+     * @param startTimestamp Start of the window in milliseconds, included.
+     * @param endTimestamp End of the window in milliseconds, included.
+     * @return The samples in timestamp order. The result is new and may be changed by the caller.
+     * @throws DataKitException When fetching a chunk failed.
+     */
+    public ColumnarResult query(String type, long startTimestamp, long endTimestamp) throws DataKitException {
+        if (endTimestamp < startTimestamp)
+            return new ColumnarResult(0, 0);
+        long first = chunkStart(startTimestamp);
+        int count = (int) ((chunkStart(endTimestamp) - first) / chunkMillis) + 1;
+        Chunk[] chunks = new Chunk[count];
+        ArrayList<Future<Chunk>> pending = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ChunkKey key = new ChunkKey(type, first + i * chunkMillis);
+            Chunk chunk;
+            synchronized (cache) {
+                chunk = cache.get(key);
+            }
+            if (chunk == null || !chunk.isComplete())
+                pending.add(fetch(key, chunk));
+            else
+                chunks[i] = chunk;
+        }
+        int next = 0;
+        for (int i = 0; i < count; i++)
+            if (chunks[i] == null)
+                chunks[i] = await(pending.get(next++));
+        // Sizes the result exactly, chunks without samples have no axes
+        int[] from = new int[count];
+        int[] to = new int[count];
+        int size = 0;
+        int dimension = 0;
+        for (int i = 0; i < count; i++) {
+            ColumnarResult samples = chunks[i].samples;
+            from[i] = samples.indexOf(startTimestamp);
+            to[i] = endTimestamp == Long.MAX_VALUE ? samples.size() : samples.indexOf(endTimestamp + 1);
+            size += to[i] - from[i];
+            if (samples.size() > 0)
+                dimension = samples.getDimension();
+        }
+        ColumnarResult result = new ColumnarResult(dimension, size);
+        for (int i = 0; i < count; i++)
+            result.addAll(chunks[i].samples, from[i], to[i]);
+        return result;
+    }
+
+    /**
+     * Drops the cached chunk that holds a timestamp, so that samples written into it late are seen
+     * by the next query.
+     * @param type Data source type.
+     * @param timestamp Timestamp of the late samples in milliseconds.
+     */
+    public void invalidate(String type, long timestamp) {
+        invalidate(type, timestamp, timestamp);
+    }
+
+    /**
+     * Drops the cached chunks that overlap a time range, so that samples written into them late,
+     * such as those replayed from a spool, are seen by the next query.
+     * @param type Data source type.
+     * @param startTimestamp Timestamp of the first late sample in milliseconds.
+     * @param endTimestamp Timestamp of the last late sample in milliseconds.
+     */
+    public void invalidate(String type, long startTimestamp, long endTimestamp) {
+        long first = chunkStart(Math.min(startTimestamp, endTimestamp));
+        long last = chunkStart(Math.max(startTimestamp, endTimestamp));
+        synchronized (cache) {
+            // A long range is matched against the cached chunks rather than walked chunk by chunk
+            if ((last - first) / chunkMillis < cache.size()) {
+                for (long start = first; start <= last; start += chunkMillis) {
+                    ChunkKey key = new ChunkKey(type, start);
+                    Chunk chunk = cache.remove(key);
+                    if (chunk != null)
+                        cachedSamples -= chunk.samples.size();
+                }
+            } else {
+                Iterator<Map.Entry<ChunkKey, Chunk>> entries = cache.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<ChunkKey, Chunk> entry = entries.next();
+                    if (entry.getKey().isIn(type, first, last)) {
+                        cachedSamples -= entry.getValue().samples.size();
+                        entries.remove();
+                    }
+                }
+            }
+            generation++;
+            Iterator<ChunkKey> keys = inFlight.keySet().iterator();
+            while (keys.hasNext())
+                if (keys.next().isIn(type, first, last))
+                    keys.remove();
+        }
+    }
+
+    /**
+     * Drops every cached chunk, for example after DataKit reconnects and spooled samples are
+     * replayed. Fetches that are still running complete for the queries waiting on them, but their
+     * chunks are not cached.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            cachedSamples = 0;
+            generation++;
+            inFlight.clear();
+        }
+    }
+
+    /**
+     * @return Number of samples in the cache.
+     */
+    public int getCachedSamples() {
+        synchronized (cache) {
+            return cachedSamples;
+        }
+    }
+
+    /**
+     * @return Number of fetches made through the <code>ChunkSource</code>.
+     */
+    public int getFetchCount() {
+        return fetchCount.get();
+    }
+
+    /**
+     * Lets running fetches finish and stops the threads.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Starts fetching a chunk, or joins a fetch of the same chunk that is already running.
+     * @param key Chunk to fetch.
+     * @param stale Incomplete cached version of the chunk to extend, or null.
+     * @return Future of the complete or extended chunk.
+     */
+    private Future<Chunk> fetch(ChunkKey key, Chunk stale) {
+        ChunkFetch fetch;
+        synchronized (cache) {
+            fetch = new ChunkFetch(key, stale, generation);
+        }
+        FutureTask<Chunk> task = new FutureTask<>(fetch);
+        fetch.task = task;
+        FutureTask<Chunk> running = inFlight.putIfAbsent(key, task);
+        if (running != null)
+            return running;
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Loads one chunk and caches it, unless chunks were dropped since the fetch was started. Those
+     * samples may have been read before the samples that made the caller drop the chunks.
+     */
+    private class ChunkFetch implements Callable<Chunk> {
+        final ChunkKey key;
+        final Chunk stale;
+        final long generation;
+        FutureTask<Chunk> task;
+
+        ChunkFetch(ChunkKey key, Chunk stale, long generation) {
+            this.key = key;
+            this.stale = stale;
+            this.generation = generation;
+        }
+
+        @Override
+        public Chunk call() throws DataKitException {
+            try {
+                Chunk chunk = load(key, stale);
+                store(key, chunk, generation);
+                return chunk;
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+    }
+
+    private Chunk load(ChunkKey key, Chunk stale) throws DataKitException {
+        long now = System.currentTimeMillis();
+        long end = key.start + chunkMillis - 1;
+        long from = key.start;
+        if (stale != null)
+            // Keeps the part that had settled at the last fetch and fetches only the rest
+            from = Math.max(key.start, stale.settledUntil + 1);
+        fetchCount.incrementAndGet();
+        ColumnarResult fetched = ColumnarResult.fromDataTypes(source.fetch(key.type, from, end));
+        ColumnarResult samples = fetched;
+        if (stale != null) {
+            int kept = stale.samples.indexOf(from);
+            if (kept > 0) {
+                samples = new ColumnarResult(stale.samples.getDimension(), kept + fetched.size());
+                samples.addAll(stale.samples, 0, kept);
+                samples.addAll(fetched, 0, fetched.size());
+            }
+        }
+        return new Chunk(samples, end, Math.min(end, now - settleMillis));
+    }
+
+    private void store(ChunkKey key, Chunk chunk, long fetchGeneration) {
+        synchronized (cache) {
+            if (fetchGeneration != generation)
+                return;
+            Chunk replaced = cache.put(key, chunk);
+            if (replaced != null)
+                cachedSamples -= replaced.samples.size();
+            cachedSamples += chunk.samples.size();
+            Iterator<Map.Entry<ChunkKey, Chunk>> eldest = cache.entrySet().iterator();
+            while (cachedSamples > maxCachedSamples && eldest.hasNext()) {
+                cachedSamples -= eldest.next().getValue().samples.size();
+                eldest.remove();
+            }
+        }
+    }
+
+    private Chunk await(Future<Chunk> future) throws DataKitException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DataKitException)
+                throw (DataKitException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DataKitException(String.valueOf(cause));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataKitException("interrupted while waiting for a query");
+        }
+    }
+
+    private long chunkStart(long timestamp) {
+        long offset = timestamp % chunkMillis;
+        return offset < 0 ? timestamp - offset - chunkMillis : timestamp - offset;
+    }
+
+    /**
+     * Samples of one chunk. Never changed once created, so queries can read it without locking.
+     */
+    private static class Chunk {
+        final ColumnarResult samples;
+        final long end;
+        final long settledUntil;
+
+        Chunk(ColumnarResult samples, long end, long settledUntil) {
+            this.samples = samples;
+            this.end = end;
+            this.settledUntil = settledUntil;
+        }
+
+        boolean isComplete() {
+            return settledUntil >= end;
+        }
+    }
+
+    private static class ChunkKey {
+        final String type;
+        final long start;
+
+        ChunkKey(String type, long start) {
+            this.type = type;
+            this.start = start;
+        }
+
+        boolean isIn(String type, long first, long last) {
+            return this.type.equals(type) && start >= first && start <= last;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ChunkKey))
+                return false;
+            ChunkKey other = (ChunkKey) o;
+            return start == other.start && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + (int) (start ^ (start >>> 32));
+        }
+    }
+}
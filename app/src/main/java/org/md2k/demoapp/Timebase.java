@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.md2k.demoapp;
+
+/**
+ * Converts sensor timestamps, which count nanoseconds on the elapsed realtime clock like
+ * <code>SensorEvent.timestamp</code>, to milliseconds since the epoch. A conversion is plain
+ * arithmetic on one offset and a drift rate, so every sample is stamped with the time it was
+ * taken, not the time it was delivered, without reading a clock.
+ * <p>
+ * The offset is measured by reading both clocks, and measured again once the sample timestamps
+ * pass the recalibration interval and the elapsed realtime clock confirms that the interval has
+ * passed, so timestamps from the future, for example from a sensor with a broken clock, do not
+ * cause a measurement for every sample. Between measurements the offset follows the drift rate, which
+ * is estimated from successive measurements, so the wall clock and the elapsed realtime clock may
+ * run at slightly different speeds, for example while the wall clock is being adjusted by network
+ * time. A measurement that differs from the prediction by more than a second is a change of the
+ * wall clock, which is taken as it is and restarts the drift estimate.
+ * </p>
+ * <p>
+ * <code>toEpochMillis()</code> can be called from any thread.
+ * </p>
+ */
+public class Timebase {
+    private static final int CALIBRATION_READS = 3;
+    private static final long STEP_NANOS = 1000000000L; // 1 second
+    private static final double DRIFT_GAIN = 0.25;
+    private static final double MAX_DRIFT = 0.001; // 1000 ppm, more is not a clock running fast
+
+    /**
+     * The two clocks a timebase relates.
+     */
+    public interface Clock {
+        /**
+         * @return Nanoseconds on the clock sensor timestamps use.
+         */
+        long elapsedRealtimeNanos();
+
+        /**
+         * @return Milliseconds since the epoch.
+         */
+        long currentTimeMillis();
+    }
+
+    /**
+     * Clocks of the JVM, for sample sources that stamp samples with <code>System.nanoTime()</code>.
+     */
+    public static final Clock JVM_CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtimeNanos() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final Clock clock;
+    private final long intervalNanos;
+    private volatile Calibration calibration;
+
+    /**
+     * Constructor. Measures the offset right away.
+     * @param clock Clocks to relate.
+     * @param intervalMillis Time between measurements of the offset.
+     */
+    public Timebase(Clock clock, long intervalMillis) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("invalid interval " + intervalMillis);
+        this.clock = clock;
+        intervalNanos = intervalMillis * 1000000;
+        calibrate();
+    }
+
+    /**
+     * Converts a sensor timestamp. Measures the offset again first if the timestamp is past the
+     * recalibration interval and so is the elapsed realtime clock.
+     * @param timestampNanos Time as in <code>SensorEvent.timestamp</code>.
+     * @return Milliseconds since the epoch.
+     */
+    public long toEpochMillis(long timestampNanos) {
+        Calibration current = calibration;
+        if (timestampNanos > current.checkAtNanos)
+            current = recalibrateIfDue(current, timestampNanos);
+        return current.toEpochNanos(timestampNanos) / 1000000;
+    }
+
+    /**
+     * Measures the offset between the clocks now and updates the drift estimate.
+     */
+    public synchronized void calibrate() {
+        recalibrate(calibration);
+    }
+
+    /**
+     * Reads the elapsed realtime clock once to check that the interval has really passed. If it
+     * has not, the sample timestamp runs ahead of the clock, and the next check is put off until
+     * the timestamps have moved on by another interval.
+     * @param seen Calibration the caller found out of date.
+     * @param timestampNanos Timestamp that passed the check.
+     * @return The calibration to convert with.
+     */
+    private synchronized Calibration recalibrateIfDue(Calibration seen, long timestampNanos) {
+        Calibration previous = calibration;
+        if (previous != seen)
+            return previous;
+        if (clock.elapsedRealtimeNanos() - previous.elapsedNanos > intervalNanos)
+            return recalibrate(previous);
+        Calibration deferred = previous.checkAt(timestampNanos + intervalNanos);
+        calibration = deferred;
+        return deferred;
+    }
+
+    /**
+     * Must be called with the lock held.
+     * @param seen Calibration the caller found out of date.
+     * @return The new calibration, or the one another thread made since.
+     */
+    private Calibration recalibrate(Calibration seen) {
+        Calibration previous = calibration;
+        if (previous != seen)
+            return previous;
+
+        // Takes the read of the wall clock that was bracketed most tightly
+        long bestWidth = Long.MAX_VALUE;
+        long elapsed = 0;
+        long epochNanos = 0;
+        for (int i = 0; i < CALIBRATION_READS; i++) {
+            long before = clock.elapsedRealtimeNanos();
+            long wall = clock.currentTimeMillis();
+            long after = clock.elapsedRealtimeNanos();
+            if (after - before < bestWidth) {
+                bestWidth = after - before;
+                elapsed = before + (after - before) / 2;
+                // The wall clock ticks in milliseconds, so its time is half a tick later on average
+                epochNanos = wall * 1000000 + 500000;
+            }
+        }
+
+        double drift = 0;
+        boolean estimated = false;
+        if (previous != null) {
+            long span = elapsed - previous.elapsedNanos;
+            long error = epochNanos - previous.toEpochNanos(elapsed);
+            if (Math.abs(error) <= STEP_NANOS && span > 0) {
+                double measured = (double) (epochNanos - previous.epochNanos - span) / span;
+                measured = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, measured));
+                drift = previous.estimated ? previous.drift + DRIFT_GAIN * (measured - previous.drift)
+                        : measured;
+                estimated = true;
+            }
+        }
+        Calibration updated = new Calibration(elapsed, epochNanos, drift, estimated,
+                elapsed + intervalNanos);
+        calibration = updated;
+        return updated;
+    }
+
+    /**
+     * @return Current estimate of how much faster the wall clock runs, in parts per million.
+     */
+    public double getDriftPpm() {
+        return calibration.drift * 1e6;
+    }
+
+    /**
+     * @return Milliseconds to add to a sensor timestamp in milliseconds, at the last measurement.
+     */
+    public long getOffsetMillis() {
+        Calibration current = calibration;
+        return (current.epochNanos - current.elapsedNanos) / 1000000;
+    }
+
+    /**
+     * One measurement of the offset. Never changed once created, so conversions read it without
+     * locking.
+     */
+    private static class Calibration {
+        final long elapsedNanos;
+        final long epochNanos;
+        final double drift;
+        final boolean estimated; // false until two measurements without a step were made
+        final long checkAtNanos; // sample timestamp after which the clock is checked again
+
+        Calibration(long elapsedNanos, long epochNanos, double drift, boolean estimated,
+                    long checkAtNanos) {
+            this.elapsedNanos = elapsedNanos;
+            this.epochNanos = epochNanos;
+            this.drift = drift;
+            this.estimated = estimated;
+            this.checkAtNanos = checkAtNanos;
+        }
+
+        Calibration checkAt(long checkAtNanos) {
+            return new Calibration(elapsedNanos, epochNanos, drift, estimated, checkAtNanos);
+        }
+
+        long toEpochNanos(long timestampNanos) {
+            long span = timestampNanos - elapsedNanos;
+            return epochNanos + span + (long) (span * drift);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.demoapp;
+
+// Java imports
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <code>SampleSource</code> that replays a recorded trace. Each line holds a timestamp in
+ * milliseconds followed by the sample values, separated by commas, as in the files DataKit writes
+ * for <code>insertHighFrequency()</code>. Lines that can not be parsed are skipped.
+ * <p>
+ * Samples keep their recorded spacing, shifted to start at <code>System.nanoTime()</code>, and
+ * are paced at <code>speed</code> times real time. A speed of 0 replays as fast as the listener
+ * takes the samples. The reader is closed when the replay ends.
+ * </p>
+ */
+public class TraceSampleSource implements SampleSource {
+    private static final int MAX_VALUES = 3;
+
+    private final Reader reader;
+    private final double speed;
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile long delivered;
+    private volatile long skippedLines;
+    private volatile IOException error;
+
+    /**
+     * Constructor
+     * @param reader Trace to replay. It can only be replayed once.
+     * @param speed Replay speed relative to real time, or 0 for as fast as possible.
+     */
+    public TraceSampleSource(Reader reader, double speed) {
+        if (speed < 0)
+            throw new IllegalArgumentException("invalid speed " + speed);
+        this.reader = reader;
+        this.speed = speed;
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        if (thread != null)
+            return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay(listener);
+            }
+        }, "TraceSampleSource");
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread current = thread;
+        if (current == null)
+            return;
+        running = false;
+        LockSupport.unpark(current);
+        boolean interrupted = false;
+        while (current.isAlive()) {
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return Whether the trace is still being replayed.
+     */
+    public boolean isRunning() {
+        Thread current = thread;
+        return current != null && current.isAlive();
+    }
+
+    @Override
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    public long getSkippedLines() {
+        return skippedLines;
+    }
+
+    /**
+     * @return The error that ended the replay early, or null.
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    private void replay(Listener listener) {
+        float[] values = new float[MAX_VALUES];
+        BufferedReader lines = new BufferedReader(reader);
+        long start = System.nanoTime();
+        long first = Long.MIN_VALUE;
+        try {
+            String line;
+            while (running && (line = lines.readLine()) != null) {
+                String[] fields = line.split(",");
+                long recorded;
+                try {
+                    recorded = Long.parseLong(fields[0].trim());
+                    for (int i = 0; i < MAX_VALUES; i++)
+                        values[i] = i + 1 < fields.length ? Float.parseFloat(fields[i + 1].trim()) : 0;
+                } catch (NumberFormatException e) {
+                    skippedLines++;
+                    continue;
+                }
+                if (first == Long.MIN_VALUE)
+                    first = recorded;
+                long offset = (recorded - first) * 1000000;
+                if (speed > 0) {
+                    long due = start + (long) (offset / speed);
+                    long wait;
+                    while (running && (wait = due - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(wait);
+                }
+                listener.onSample(start + offset, values);
+                delivered++;
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            try {
+                lines.close();
+            } catch (IOException ignored) {
+                // Nothing left to read
+            }
+        }
+    }
+}
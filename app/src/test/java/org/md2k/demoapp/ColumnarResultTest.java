@@ -0,0 +1,76 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>ColumnarResult</code>.
+ */
+public class ColumnarResultTest {
+
+    private static ColumnarResult ramp(int rows) {
+        ArrayList<DataType> query = new ArrayList<>();
+        for (int i = 0; i < rows; i++)
+            query.add(new DataTypeDoubleArray(1000 + 10 * i, new double[]{i, -i, 0.5}));
+        return ColumnarResult.fromDataTypes(query);
+    }
+
+    @Test
+    public void convertsRowsToColumns() {
+        ColumnarResult result = ramp(100);
+        assertEquals(100, result.size());
+        assertEquals(3, result.getDimension());
+        assertEquals(1990, result.getTimestamp(99));
+        assertEquals(-7, result.get(7, 1), 0);
+        assertEquals(0, result.min(0), 0);
+        assertEquals(99, result.max(0), 0);
+        assertEquals(-99, result.min(1), 0);
+        assertEquals(49.5, result.mean(0), 1e-12);
+        assertEquals(0.5, result.mean(2), 1e-12);
+        assertEquals(100, result.getColumn(2).length);
+
+        assertEquals(0, result.indexOf(0));
+        assertEquals(5, result.indexOf(1041));
+        assertEquals(5, result.indexOf(1050));
+        assertEquals(100, result.indexOf(5000));
+        assertEquals(0, ColumnarResult.fromDataTypes(new ArrayList<DataType>()).size());
+    }
+
+    @Test
+    public void resampleAveragesEachPeriod() {
+        ColumnarResult result = ramp(100).resample(100); // ten rows per period
+        assertEquals(10, result.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1000 + 100 * i, result.getTimestamp(i));
+            assertEquals(10 * i + 4.5, result.get(i, 0), 1e-12);
+            assertEquals(-(10 * i + 4.5), result.get(i, 1), 1e-12);
+        }
+
+        ColumnarResult gaps = new ColumnarResult(1, 0);
+        gaps.add(5, new double[]{1});
+        gaps.add(7, new double[]{3});
+        gaps.add(250, new double[]{10});
+        ColumnarResult resampled = gaps.resample(100);
+        assertEquals(2, resampled.size());
+        assertEquals(0, resampled.getTimestamp(0));
+        assertEquals(2, resampled.get(0, 0), 0);
+        assertEquals(200, resampled.getTimestamp(1));
+    }
+
+    @Test
+    public void addAllCopiesRange() {
+        ColumnarResult source = ramp(50);
+        ColumnarResult result = new ColumnarResult(3, 0);
+        result.addAll(source, 10, 20);
+        result.addAll(source, 40, 50);
+        assertEquals(20, result.size());
+        assertEquals(1100, result.getTimestamp(0));
+        assertEquals(49, result.get(19, 0), 0);
+    }
+}
@@ -0,0 +1,113 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>Decimator</code>.
+ */
+public class DecimatorTest {
+    private static final long SECOND = 1000000000L;
+
+    /**
+     * Output that checks the spacing of the samples and keeps the largest x value seen after
+     * the first second.
+     */
+    private static class RecordingOutput implements Decimator.Output {
+        final long period;
+        long count;
+        long last = -1;
+        double maxX;
+
+        RecordingOutput(double rate) {
+            period = Math.round(SECOND / rate);
+        }
+
+        @Override
+        public void onSample(long timestampNanos, double x, double y, double z) {
+            if (last >= 0)
+                assertEquals("output spacing", period, timestampNanos - last);
+            last = timestampNanos;
+            count++;
+            if (timestampNanos > 2 * SECOND)
+                maxX = Math.max(maxX, Math.abs(x));
+        }
+    }
+
+    @Test
+    public void outputRateIsExactWithJitteredInput() throws Exception {
+        for (Decimator.Filter filter : Decimator.Filter.values()) {
+            for (double rate : new double[]{25, 50, 100}) {
+                RecordingOutput output = new RecordingOutput(rate);
+                Decimator decimator = new Decimator(rate, filter, output);
+                Random random = new Random(42);
+                long time = SECOND;
+                // About 200 Hz with +-0.5 ms of jitter for 60 seconds
+                while (time < 61 * SECOND) {
+                    time += 5000000 + random.nextInt(1000000) - 500000;
+                    decimator.process(time, 1, 2, 3);
+                }
+                assertEquals(filter + " at " + rate + " Hz", 60 * rate, output.count, 0.01 * 60 * rate);
+            }
+        }
+    }
+
+    @Test
+    public void firFilterRemovesFrequenciesAboveNyquist() throws Exception {
+        RecordingOutput fir = new RecordingOutput(25);
+        RecordingOutput none = new RecordingOutput(25);
+        Decimator filtered = new Decimator(25, Decimator.Filter.FIR, fir);
+        Decimator unfiltered = new Decimator(25, Decimator.Filter.NONE, none);
+        for (long time = SECOND; time < 11 * SECOND; time += 5000000) {
+            double x = Math.sin(2 * Math.PI * 60 * time / SECOND);
+            filtered.process(time, x, 0, 0);
+            unfiltered.process(time, x, 0, 0);
+        }
+        assertTrue("60 Hz aliases without filtering", none.maxX > 0.5);
+        assertTrue("60 Hz is removed by the FIR filter", fir.maxX < 0.01);
+    }
+
+    @Test
+    public void configureTakesEffectOnNextSample() throws Exception {
+        RecordingOutput output = new RecordingOutput(50);
+        Decimator decimator = new Decimator(100, Decimator.Filter.AVERAGE, output);
+        decimator.configure(50, Decimator.Filter.AVERAGE);
+        for (long time = SECOND; time <= 2 * SECOND; time += 5000000)
+            decimator.process(time, 0, 0, 0);
+        assertEquals(50, output.count, 1);
+    }
+
+    @Test
+    public void averageCoversTheWholePeriodAtLowTargetRates() throws Exception {
+        final double[] range = {Double.MAX_VALUE, -Double.MAX_VALUE};
+        Decimator decimator = new Decimator(1, Decimator.Filter.AVERAGE, new Decimator.Output() {
+            @Override
+            public void onSample(long timestampNanos, double x, double y, double z) {
+                if (timestampNanos > 3 * SECOND) {
+                    range[0] = Math.min(range[0], x);
+                    range[1] = Math.max(range[1], x);
+                }
+            }
+        });
+        // 1 Hz square wave sampled at 1 kHz, so each average covers a whole input period of 1000 samples
+        for (long i = 0; i < 10000; i++)
+            decimator.process(SECOND + i * 1000000, i % 1000 < 500 ? 1 : 0, 0, 0);
+        assertEquals(0.5, range[0], 0.01);
+        assertEquals(0.5, range[1], 0.01);
+    }
+
+    @Test
+    public void firFilterIsLongEnoughAtLowTargetRates() throws Exception {
+        RecordingOutput fir = new RecordingOutput(10);
+        Decimator filtered = new Decimator(10, Decimator.Filter.FIR, fir);
+        // 100 input samples per output sample
+        for (long time = SECOND; time < 11 * SECOND; time += 1000000) {
+            double x = Math.sin(2 * Math.PI * 12 * time / SECOND);
+            filtered.process(time, x, 0, 0);
+        }
+        assertTrue("12 Hz is removed by the FIR filter: " + fir.maxX, fir.maxX < 0.01);
+    }
+}
@@ -0,0 +1,68 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>FeatureExtractor</code>.
+ */
+public class FeatureExtractorTest {
+    private static final double RATE = 50;
+    private static final int WINDOW = 64;
+
+    @Test
+    public void incrementalFeaturesMatchDirectComputation() {
+        final ArrayList<double[]> outputs = new ArrayList<>();
+        final ArrayList<double[]> history = new ArrayList<>();
+        FeatureExtractor extractor = new FeatureExtractor(RATE, WINDOW, 10,
+                new double[][]{{1, 4}, {8, 12}}, new FeatureExtractor.Output() {
+            @Override
+            public void onFeatures(long timestampNanos, FeatureExtractor features) {
+                double[] magnitudes = new double[WINDOW];
+                for (int n = 0; n < WINDOW; n++) {
+                    double[] s = history.get(history.size() - WINDOW + n);
+                    magnitudes[n] = Math.sqrt(s[0] * s[0] + s[1] * s[1] + s[2] * s[2]);
+                }
+                double mean = 0;
+                for (double m : magnitudes)
+                    mean += m / WINDOW;
+                double variance = 0;
+                for (double m : magnitudes)
+                    variance += (m - mean) * (m - mean) / WINDOW;
+                assertEquals(mean, features.getMean(FeatureExtractor.MAGNITUDE), 1e-9);
+                assertEquals(variance, features.getVariance(FeatureExtractor.MAGNITUDE), 1e-9);
+                // Direct DFT of the 1 to 4 Hz band
+                double energy = 0;
+                for (int k = 1; k <= 5; k++) {
+                    double re = 0, im = 0;
+                    for (int n = 0; n < WINDOW; n++) {
+                        re += magnitudes[n] * Math.cos(2 * Math.PI * k * n / WINDOW);
+                        im -= magnitudes[n] * Math.sin(2 * Math.PI * k * n / WINDOW);
+                    }
+                    energy += re * re + im * im;
+                }
+                assertEquals(2 * energy / WINDOW / WINDOW, features.getBandEnergy(0), 1e-6);
+                outputs.add(new double[]{features.getBandEnergy(0), features.getBandEnergy(1),
+                        features.getZeroCrossings(0)});
+            }
+        });
+        // Samples go through the extractor's decimator, so feed it at its rate with exact timing
+        // and keep a copy of what reaches the window
+        long period = (long) (1e9 / RATE);
+        for (int i = 0; i < 1000; i++) {
+            double x = Math.sin(2 * Math.PI * 2 * i / RATE);
+            double[] sample = {x, 0.5, 1};
+            history.add(sample);
+            extractor.process(i * period, sample[0], sample[1], sample[2]);
+        }
+        assertTrue(outputs.size() > 50);
+        double[] last = outputs.get(outputs.size() - 1);
+        // Energy of the 2 Hz tone, and its harmonics in the magnitude, is in the first band
+        assertTrue(last[0] > 10 * last[1]);
+        // About 2 crossings per cycle, 2.56 cycles per window
+        assertEquals(5, last[2], 1);
+    }
+}
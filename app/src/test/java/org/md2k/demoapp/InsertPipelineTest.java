@@ -0,0 +1,195 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>InsertPipeline</code> and <code>SampleBuffer</code>, and for the whole
+ * sample path of <code>CaptureStream</code> that feeds them.
+ */
+public class InsertPipelineTest {
+
+    /**
+     * Sink that only counts the samples it receives.
+     */
+    private static class CountingSink implements InsertPipeline.Sink {
+        volatile long received;
+        volatile long lastTimestamp = -1;
+
+        @Override
+        public void insert(SampleBuffer batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(lastTimestamp + 1, batch.getTimestamp(i));
+                lastTimestamp = batch.getTimestamp(i);
+            }
+            received += batch.size();
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long allocatedBytes() {
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Bytes a measured loop may allocate in total, left over from the JIT and the allocation
+     * counter. Any allocation on the sample path costs at least 16 bytes per event, so over the
+     * loops below it is far above this.
+     */
+    private static final long MAX_STRAY_BYTES = 1024;
+
+    /**
+     * Reading the allocation counter allocates a little itself, so measurements subtract it.
+     */
+    private static long measurementOverhead() {
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long before = allocatedBytes();
+            overhead = Math.min(overhead, allocatedBytes() - before);
+        }
+        return overhead;
+    }
+
+    @Test
+    public void flushDeliversSamplesInOrder() throws Exception {
+        CountingSink sink = new CountingSink();
+        InsertPipeline pipeline = new InsertPipeline(sink, 64, 16, 10000,
+                InsertPipeline.BackpressurePolicy.BLOCK);
+        for (int i = 0; i < 1000; i++)
+            assertTrue(pipeline.offer(i, i, -i, 0));
+        pipeline.flush();
+        assertEquals(1000, sink.received);
+        assertEquals(0, pipeline.getDroppedCount());
+        pipeline.close();
+        assertFalse(pipeline.offer(1000, 0, 0, 0));
+    }
+
+    @Test
+    public void requestFlushInsertsBeforeBatchIsFullOrOld() throws Exception {
+        CountingSink sink = new CountingSink();
+        InsertPipeline pipeline = new InsertPipeline(sink, 64, 50, 60000,
+                InsertPipeline.BackpressurePolicy.BLOCK);
+        for (int i = 0; i < 10; i++)
+            pipeline.offer(i, 0, 0, 0);
+        pipeline.requestFlush();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sink.received < 10 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(10, sink.received);
+        pipeline.close();
+    }
+
+    @Test
+    public void dropNewestWhenFull() throws Exception {
+        final Object gate = new Object();
+        InsertPipeline pipeline = new InsertPipeline(new InsertPipeline.Sink() {
+            @Override
+            public void insert(SampleBuffer batch) {
+                synchronized (gate) {
+                    // blocks until the test releases the gate
+                }
+            }
+        }, 4, 4, 10000, InsertPipeline.BackpressurePolicy.DROP_NEWEST);
+        synchronized (gate) {
+            for (int i = 0; i < 4; i++)
+                assertTrue(pipeline.offer(i, 0, 0, 0));
+            // Wait until the worker has taken the full batch and is stuck in the sink
+            while (!pipeline.offer(4, 0, 0, 0))
+                Thread.yield();
+            for (int i = 5; i < 8; i++)
+                assertTrue(pipeline.offer(i, 0, 0, 0));
+            assertFalse(pipeline.offer(8, 0, 0, 0));
+        }
+        pipeline.close();
+        assertTrue(pipeline.getDroppedCount() >= 1);
+    }
+
+    @Test
+    public void sampleBufferDoesNotAllocate() throws Exception {
+        SampleBuffer source = new SampleBuffer(128);
+        SampleBuffer batch = new SampleBuffer(32);
+        for (int round = 0; round < 2; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < 100000; i++) {
+                if (!source.add(i, i, i, i))
+                    source.removeOldest();
+                if (source.size() > 64) {
+                    source.drainTo(batch, batch.capacity());
+                    batch.clear();
+                }
+            }
+            long allocated = allocatedBytes() - before - measurementOverhead();
+            if (round == 1)
+                assertTrue("bytes allocated: " + allocated, allocated <= MAX_STRAY_BYTES);
+        }
+    }
+
+    @Test
+    public void offerDoesNotAllocateOnceWarmedUp() throws Exception {
+        int events = 100000;
+        CountingSink sink = new CountingSink();
+        // Thresholds large enough that the worker stays parked while the samples are offered
+        InsertPipeline pipeline = new InsertPipeline(sink, 4 * events, 2 * events, 600000,
+                InsertPipeline.BackpressurePolicy.DROP_OLDEST);
+
+        // Warm up so that class loading, lock initialization and JIT compilation are done
+        for (int i = 0; i < events; i++)
+            pipeline.offer(i, i, i, i);
+
+        long before = allocatedBytes();
+        for (int i = events; i < 2 * events; i++)
+            pipeline.offer(i, i, i, i);
+        long allocated = allocatedBytes() - before - measurementOverhead();
+
+        pipeline.flush();
+        pipeline.close();
+        assertEquals(2 * events, sink.received);
+        assertTrue("bytes allocated: " + allocated, allocated <= MAX_STRAY_BYTES);
+    }
+
+    @Test
+    public void captureStreamProcessDoesNotAllocateOnceWarmedUp() throws Exception {
+        int events = 100000;
+        long periodNanos = 5000000; // 200 Hz sensor, stored at 50 Hz
+        final AtomicLong received = new AtomicLong();
+        CaptureStream stream = new CaptureStream(new StreamConfig(1, "ACCELEROMETER", 3, 1, 50,
+                Decimator.Filter.FIR));
+        // An interval longer than the test, so the timebase is not measured again in between
+        stream.start(new InsertPipeline.Sink() {
+            @Override
+            public void insert(SampleBuffer batch) {
+                received.addAndGet(batch.size());
+            }
+        }, null, new Timebase(Timebase.JVM_CLOCK, 3600000), null);
+        float[] values = new float[3];
+        long timestamp = System.nanoTime();
+
+        // Warm up the decimator, the timebase and the pipeline through the same calls
+        for (int i = 0; i < events; i++) {
+            values[0] = i % 7;
+            stream.process(timestamp, values);
+            timestamp += periodNanos;
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < events; i++) {
+            values[0] = i % 7;
+            stream.process(timestamp, values);
+            timestamp += periodNanos;
+        }
+        long allocated = allocatedBytes() - before - measurementOverhead();
+
+        InsertPipeline pipeline = stream.stop();
+        pipeline.flush();
+        pipeline.close();
+        // Offered faster than a sensor would, so the pipeline may drop the oldest samples
+        assertTrue(received.get() > 0);
+        assertTrue("bytes allocated: " + allocated, allocated <= MAX_STRAY_BYTES);
+    }
+}
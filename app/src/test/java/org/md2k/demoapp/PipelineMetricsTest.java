@@ -0,0 +1,66 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>PipelineMetrics</code> and <code>LatencyHistogram</code>.
+ */
+public class PipelineMetricsTest {
+
+    @Test
+    public void histogramPercentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram(3600000);
+        for (int value = 1; value <= 10000; value++)
+            histogram.record(value);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10002, snapshot.getTotalCount());
+        assertEquals(5000, snapshot.getValueAtPercentile(50), 5000 * 0.035);
+        assertEquals(9900, snapshot.getValueAtPercentile(99), 9900 * 0.035);
+        assertEquals(3600000, snapshot.getMax(), 3600000 * 0.035);
+        for (long value = 0; value < 1L << 40; value = value * 3 / 2 + 1) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.lowestValueAt(index) <= value);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= value);
+        }
+    }
+
+    @Test
+    public void pipelineCountsEveryStage() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        InsertPipeline pipeline = new InsertPipeline(new InsertPipeline.Sink() {
+            @Override
+            public void insert(SampleBuffer batch) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 10, 5, 1000, InsertPipeline.BackpressurePolicy.DROP_NEWEST);
+        PipelineMetrics metrics = new PipelineMetrics("TEST");
+        pipeline.setMetrics(metrics);
+        long now = System.currentTimeMillis();
+        // The first batch blocks in the sink, so the queue fills up behind it
+        for (int i = 0; i < 5; i++)
+            pipeline.offer(now, 0, 0, 0);
+        Thread.sleep(100);
+        for (int i = 0; i < 12; i++)
+            pipeline.offer(now, 0, 0, 0);
+        release.countDown();
+        pipeline.close();
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(17, snapshot.getAccepted());
+        assertEquals(2, snapshot.getDropped());
+        assertEquals(15, snapshot.getInserted());
+        assertEquals(3, snapshot.getBatchSizes().getTotalCount());
+        assertEquals(5, snapshot.getBatchSizes().getMean(), 0);
+        assertTrue(snapshot.getLatency().getValueAtPercentile(50) >= 100);
+    }
+}
@@ -0,0 +1,124 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.md2k.datakitapi.exception.DataKitException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>QueryCursor</code>.
+ */
+public class QueryCursorTest {
+
+    /**
+     * Serves the keys 1 to <code>rows</code> and records how many pages were fetched but not read.
+     */
+    private static class KeySource implements QueryCursor.PageSource<Long> {
+        final long rows;
+        final AtomicInteger fetched = new AtomicInteger();
+        volatile int maxAhead;
+        volatile long readKey;
+
+        KeySource(long rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public ArrayList<Long> fetch(long afterKey, int limit) {
+            ArrayList<Long> page = new ArrayList<>();
+            for (long key = afterKey + 1; key <= rows && page.size() < limit; key++)
+                page.add(key);
+            fetched.incrementAndGet();
+            maxAhead = Math.max(maxAhead, (int) ((afterKey - readKey) / limit));
+            return page;
+        }
+
+        @Override
+        public long keyOf(Long row) {
+            return row;
+        }
+    }
+
+    @Test
+    public void readsEveryRowInOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        KeySource source = new KeySource(1050);
+        QueryCursor<Long> cursor = new QueryCursor<>(source, 0, 100, 3, executor);
+        long expected = 1;
+        while (cursor.hasNext()) {
+            long key = cursor.next();
+            assertEquals(expected++, key);
+            source.readKey = key;
+            if (key % 100 == 0)
+                Thread.sleep(2); // let the prefetch run ahead as far as it may
+        }
+        assertEquals(1051, expected);
+        assertEquals(11, source.fetched.get());
+        assertTrue("pages held ahead of the reader: " + source.maxAhead, source.maxAhead <= 3);
+        cursor.close();
+        executor.shutdown();
+    }
+
+    @Test
+    public void startsAfterTheGivenKey() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        QueryCursor<Long> cursor = new QueryCursor<>(new KeySource(10), 7, 2, 2, executor);
+        assertEquals(8L, (long) cursor.next());
+        assertEquals(9L, (long) cursor.next());
+        assertEquals(10L, (long) cursor.next());
+        assertFalse(cursor.hasNext());
+        assertEquals(10, cursor.getLastFetchedKey());
+        executor.shutdown();
+    }
+
+    @Test(expected = DataKitException.class)
+    public void reportsFetchFailures() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        QueryCursor<Long> cursor = new QueryCursor<>(new QueryCursor.PageSource<Long>() {
+            @Override
+            public ArrayList<Long> fetch(long afterKey, int limit) throws DataKitException {
+                throw new DataKitException("DataKit is not connected");
+            }
+
+            @Override
+            public long keyOf(Long row) {
+                return row;
+            }
+        }, 0, 10, 2, executor);
+        try {
+            cursor.hasNext();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void reportsRuntimeExceptionsInsteadOfWaiting() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        QueryCursor<Long> cursor = new QueryCursor<>(new QueryCursor.PageSource<Long>() {
+            @Override
+            public ArrayList<Long> fetch(long afterKey, int limit) {
+                throw new IllegalStateException("cursor closed");
+            }
+
+            @Override
+            public long keyOf(Long row) {
+                return row;
+            }
+        }, 0, 10, 2, executor);
+        try {
+            cursor.hasNext();
+            fail("expected a DataKitException");
+        } catch (DataKitException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>SampleBlockEncoder</code> and <code>SampleBlockDecoder</code>.
+ */
+public class SampleBlockEncoderTest {
+
+    private static ArrayList<byte[]> encode(SampleBlockEncoder.Mode mode, double quantum, int blockSize,
+                                            int dimension, SampleBuffer samples) {
+        final ArrayList<byte[]> blocks = new ArrayList<>();
+        SampleBlockEncoder encoder = new SampleBlockEncoder(blockSize, dimension, mode, quantum,
+                new SampleBlockEncoder.BlockListener() {
+                    @Override
+                    public void onBlock(byte[] block, int length, long firstTimestamp, int count) {
+                        byte[] copy = new byte[length];
+                        System.arraycopy(block, 0, copy, 0, length);
+                        blocks.add(copy);
+                    }
+                });
+        encoder.add(samples);
+        encoder.flush();
+        return blocks;
+    }
+
+    private static SampleBuffer accelerometer(int count) {
+        Random random = new Random(7);
+        SampleBuffer samples = new SampleBuffer(count);
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < count; i++) {
+            timestamp += 10 + (i % 50 == 0 ? random.nextInt(3) : 0);
+            samples.add(timestamp, Math.sin(i / 20.0) + random.nextGaussian() * 0.01,
+                    Math.cos(i / 20.0), i % 7 == 0 ? Double.NaN : -1);
+        }
+        return samples;
+    }
+
+    @Test
+    public void xorRoundTripIsLosslessAcrossBlocks() {
+        SampleBuffer samples = accelerometer(2000);
+        ArrayList<byte[]> blocks = encode(SampleBlockEncoder.Mode.XOR, 0, 4096, 3, samples);
+        assertTrue(blocks.size() > 1);
+        SampleBuffer decoded = new SampleBuffer(samples.size());
+        for (byte[] block : blocks) {
+            assertTrue(block.length <= 4096);
+            SampleBlockDecoder.decode(block, decoded);
+        }
+        assertEquals(samples.size(), decoded.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(samples.getTimestamp(i), decoded.getTimestamp(i));
+            assertEquals(Double.doubleToRawLongBits(samples.getX(i)), Double.doubleToRawLongBits(decoded.getX(i)));
+            assertEquals(Double.doubleToRawLongBits(samples.getY(i)), Double.doubleToRawLongBits(decoded.getY(i)));
+            assertEquals(Double.doubleToRawLongBits(samples.getZ(i)), Double.doubleToRawLongBits(decoded.getZ(i)));
+        }
+    }
+
+    @Test
+    public void quantizedRoundTripStaysWithinHalfAQuantum() {
+        SampleBuffer samples = new SampleBuffer(1000);
+        for (int i = 0; i < 1000; i++)
+            samples.add(1000L * i, 1013.25 + Math.sin(i / 50.0), 0, 0);
+        ArrayList<byte[]> blocks = encode(SampleBlockEncoder.Mode.QUANTIZED, 0.01, 65536, 1, samples);
+        assertEquals(1, blocks.size());
+        assertEquals(1, SampleBlockDecoder.dimension(blocks.get(0)));
+        assertEquals(1000, SampleBlockDecoder.count(blocks.get(0)));
+        // One byte of timestamp and at most two of value per sample
+        assertTrue(blocks.get(0).length < 3 * 1000 + 32);
+        SampleBuffer decoded = new SampleBuffer(1000);
+        SampleBlockDecoder.decode(blocks.get(0), decoded);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(samples.getTimestamp(i), decoded.getTimestamp(i));
+            assertEquals(samples.getX(i), decoded.getX(i), 0.005 + 1e-9);
+            assertEquals(0, decoded.getY(i), 0);
+        }
+    }
+}
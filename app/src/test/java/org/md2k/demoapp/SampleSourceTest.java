@@ -0,0 +1,98 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>SyntheticSampleSource</code> and <code>TraceSampleSource</code>.
+ */
+public class SampleSourceTest {
+
+    private static class LastSample implements SampleSource.Listener {
+        volatile long count;
+        volatile long lastTimestamp = Long.MIN_VALUE;
+        final float[] last = new float[3];
+
+        @Override
+        public void onSample(long timestampNanos, float[] values) {
+            assertTrue(timestampNanos > lastTimestamp);
+            lastTimestamp = timestampNanos;
+            System.arraycopy(values, 0, last, 0, 3);
+            count++;
+        }
+    }
+
+    @Test
+    public void syntheticWaveformsAreDeterministic() {
+        SyntheticSampleSource a = new SyntheticSampleSource(SyntheticSampleSource.Waveform.NOISE,
+                1000, 0, 2, 3, 42);
+        SyntheticSampleSource b = new SyntheticSampleSource(SyntheticSampleSource.Waveform.NOISE,
+                1000, 0, 2, 3, 42);
+        float[] first = new float[3];
+        float[] second = new float[3];
+        for (long i = 0; i < 1000; i++) {
+            a.fill(i, first);
+            b.fill(i, second);
+            assertArrayEquals(first, second, 0);
+            assertTrue(Math.abs(first[0]) <= 2);
+        }
+        SyntheticSampleSource square = new SyntheticSampleSource(SyntheticSampleSource.Waveform.SQUARE,
+                100, 10, 1, 1, 0);
+        square.fill(2, first);
+        assertEquals(1, first[0], 0);
+        square.fill(7, first);
+        assertEquals(-1, first[0], 0);
+    }
+
+    @Test
+    public void syntheticSourceDrivesCaptureStream() throws Exception {
+        CaptureStream stream = new CaptureStream(new StreamConfig(0, "TEST", 3, 1, 100,
+                Decimator.Filter.AVERAGE));
+        final long[] inserted = {0};
+        stream.start(new InsertPipeline.Sink() {
+            @Override
+            public void insert(SampleBuffer batch) {
+                inserted[0] += batch.size();
+            }
+        }, null, new Timebase(Timebase.JVM_CLOCK, 60000), null);
+        SyntheticSampleSource source = new SyntheticSampleSource(SyntheticSampleSource.Waveform.SINE,
+                1000, 5, 1, 3, 0);
+        source.setRealTime(false);
+        source.setMaxSamples(10000);
+        source.start(stream);
+        while (source.isRunning())
+            Thread.sleep(1);
+        source.stop();
+        stream.stop().close();
+        assertEquals(10000, source.getDeliveredCount());
+        // 10 seconds of samples at 100 Hz, less the one the decimator holds back
+        assertEquals(1000, inserted[0], 1);
+        assertEquals(10000, stream.getMetrics().snapshot().getReceived());
+    }
+
+    @Test
+    public void traceIsReplayedWithRecordedSpacing() throws Exception {
+        String trace = "1000,1.5,2,3\n1010,1.6,2,3\nheader,x\n1030,1.7,2.5,-3\n";
+        TraceSampleSource source = new TraceSampleSource(new StringReader(trace), 0);
+        final LastSample listener = new LastSample();
+        final long[] timestamps = new long[3];
+        source.start(new SampleSource.Listener() {
+            @Override
+            public void onSample(long timestampNanos, float[] values) {
+                timestamps[(int) listener.count] = timestampNanos;
+                listener.onSample(timestampNanos, values);
+            }
+        });
+        while (source.isRunning())
+            Thread.sleep(1);
+        assertNull(source.getError());
+        assertEquals(3, source.getDeliveredCount());
+        assertEquals(1, source.getSkippedLines());
+        assertEquals(10000000, timestamps[1] - timestamps[0]);
+        assertEquals(30000000, timestamps[2] - timestamps[0]);
+        assertArrayEquals(new float[]{1.7f, 2.5f, -3}, listener.last, 0);
+    }
+}
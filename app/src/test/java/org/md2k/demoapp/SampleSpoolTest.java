@@ -0,0 +1,133 @@
+package org.md2k.demoapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.md2k.datakitapi.exception.DataKitException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>SampleSpool</code> and its use by <code>InsertPipeline</code>.
+ */
+public class SampleSpoolTest {
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("spool", ".bin");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static SampleBuffer samples(long first, int count) {
+        SampleBuffer buffer = new SampleBuffer(count);
+        for (int i = 0; i < count; i++)
+            buffer.add(first + i, first + i, -(first + i), 0.5);
+        return buffer;
+    }
+
+    @Test
+    public void keepsUncommittedSamplesAcrossReopen() throws Exception {
+        SampleSpool spool = new SampleSpool(file, 100);
+        assertFalse(spool.isRecovered());
+        assertEquals(60, spool.append(samples(0, 60)));
+        SampleBuffer peeked = new SampleBuffer(25);
+        assertEquals(25, spool.peek(peeked, 25));
+        spool.commit(25);
+        spool.close();
+
+        spool = new SampleSpool(file, 100);
+        assertTrue(spool.isRecovered());
+        assertEquals(35, spool.size());
+        peeked.clear();
+        spool.peek(peeked, 25);
+        assertEquals(25, peeked.getTimestamp(0));
+        assertEquals(-25, peeked.getY(0), 0);
+        spool.close();
+    }
+
+    @Test
+    public void wrapsAroundAndDropsWhenFull() throws Exception {
+        SampleSpool spool = new SampleSpool(file, 10);
+        spool.append(samples(0, 8));
+        spool.commit(spool.peek(new SampleBuffer(8), 8));
+        assertEquals(10, spool.append(samples(8, 12)));
+        assertEquals(2, spool.getDroppedCount());
+        SampleBuffer peeked = new SampleBuffer(10);
+        spool.peek(peeked, 10);
+        for (int i = 0; i < 10; i++)
+            assertEquals(8 + i, peeked.getTimestamp(i));
+        spool.close();
+    }
+
+    @Test
+    public void pipelineSpoolsWhileSinkFailsAndReplaysInOrder() throws Exception {
+        final AtomicBoolean available = new AtomicBoolean(false);
+        final long[] next = {0};
+        InsertPipeline pipeline = new InsertPipeline(new InsertPipeline.Sink() {
+            @Override
+            public void insert(SampleBuffer batch) throws DataKitException {
+                if (!available.get())
+                    throw new DataKitException("DataKit is not connected");
+                for (int i = 0; i < batch.size(); i++)
+                    assertEquals(next[0]++, batch.getTimestamp(i));
+            }
+        }, 100, 10, 10000, InsertPipeline.BackpressurePolicy.BLOCK);
+        pipeline.setSpool(new SampleSpool(file, 1000));
+
+        for (int i = 0; i < 50; i++)
+            pipeline.offer(i, 0, 0, 0);
+        pipeline.flush();
+        assertEquals(50, pipeline.getSpool().size());
+
+        available.set(true);
+        for (int i = 50; i < 80; i++)
+            pipeline.offer(i, 0, 0, 0);
+        pipeline.requestReplay();
+        pipeline.flush();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!pipeline.getSpool().isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        pipeline.close();
+        assertEquals(80, next[0]);
+    }
+
+    @Test
+    public void spoolsOnlyTheSamplesAPartialInsertLeftBehind() throws Exception {
+        final long[] next = {0};
+        InsertPipeline pipeline = new InsertPipeline(new InsertPipeline.Sink() {
+            @Override
+            public void insert(SampleBuffer batch) throws DataKitException {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (i == 5)
+                        throw new InsertPipeline.PartialInsertException("DataKit disconnected", i);
+                    assertEquals(next[0]++, batch.getTimestamp(i));
+                }
+            }
+        }, 100, 10, 10000, InsertPipeline.BackpressurePolicy.BLOCK);
+        pipeline.setSpool(new SampleSpool(file, 1000));
+
+        for (int i = 0; i < 10; i++)
+            pipeline.offer(i, 0, 0, 0);
+        pipeline.flush();
+        assertEquals(5, next[0]);
+        assertEquals(5, pipeline.getSpool().size());
+
+        pipeline.requestReplay();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (next[0] < 10 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        pipeline.close();
+        assertEquals(10, next[0]);
+        assertTrue(pipeline.getSpool().isEmpty());
+    }
+}
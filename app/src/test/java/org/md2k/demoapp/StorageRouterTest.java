@@ -0,0 +1,118 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>StorageRouter</code>.
+ */
+public class StorageRouterTest {
+    private long timestamp = 1000000;
+
+    /**
+     * Routes <code>seconds</code> of a stream at <code>rate</code> hertz in one second batches.
+     * @return Route of the last batch.
+     */
+    private StorageRouter.Route feed(StorageRouter router, int rate, int seconds) {
+        StorageRouter.Route route = null;
+        SampleBuffer batch = new SampleBuffer(rate);
+        for (int s = 0; s < seconds; s++) {
+            batch.clear();
+            for (int i = 0; i < rate; i++) {
+                batch.add(timestamp, 0, 0, 0);
+                timestamp += 1000 / rate;
+            }
+            route = router.route(batch);
+        }
+        return route;
+    }
+
+    @Test
+    public void switchesOnlyAfterDwellAndWithHysteresis() {
+        // 32 bytes per sample: 50 Hz is 1600 bytes per second
+        StorageRouter router = new StorageRouter("TEST", 3, 1600, 800, 30000);
+        assertEquals(StorageRouter.Route.DATABASE, feed(router, 10, 60));
+        assertEquals(StorageRouter.Route.DATABASE, feed(router, 100, 20));
+        assertEquals(StorageRouter.Route.HIGH_FREQUENCY, feed(router, 100, 20));
+        // Between the thresholds nothing changes
+        assertEquals(StorageRouter.Route.HIGH_FREQUENCY, feed(router, 40, 120));
+        // A short dip does not switch back
+        assertEquals(StorageRouter.Route.HIGH_FREQUENCY, feed(router, 10, 15));
+        assertEquals(StorageRouter.Route.HIGH_FREQUENCY, feed(router, 100, 10));
+        assertEquals(StorageRouter.Route.DATABASE, feed(router, 10, 60));
+
+        ArrayList<StorageRouter.Segment> segments = router.getSegments();
+        assertEquals(3, segments.size());
+        assertEquals(StorageRouter.Route.DATABASE, segments.get(0).getRoute());
+        assertEquals(StorageRouter.Route.HIGH_FREQUENCY, segments.get(1).getRoute());
+        assertEquals(StorageRouter.Route.DATABASE, segments.get(2).getRoute());
+        assertEquals(1000000, segments.get(0).getStart());
+        assertTrue(segments.get(0).getEnd() < segments.get(1).getStart());
+        assertTrue(segments.get(1).getEnd() < segments.get(2).getStart());
+    }
+
+    @Test
+    public void forcedModeOverridesMeasurement() {
+        StorageRouter router = new StorageRouter("TEST", 3, 1600, 800, 30000);
+        router.setMode(StorageRouter.Mode.HIGH_FREQUENCY);
+        assertEquals(StorageRouter.Route.HIGH_FREQUENCY, feed(router, 1, 10));
+        router.setMode(StorageRouter.Mode.AUTO);
+        assertEquals(StorageRouter.Route.DATABASE, feed(router, 1, 1));
+        assertEquals(2, router.getSegments().size());
+    }
+
+    @Test
+    public void replayedBatchesUseTheirSegmentAndAreNotMeasured() {
+        StorageRouter router = new StorageRouter("TEST", 3, 1600, 800, 30000);
+        feed(router, 10, 60);
+        long databaseTime = timestamp - 1000;
+        assertEquals(StorageRouter.Route.HIGH_FREQUENCY, feed(router, 100, 40));
+        double rate = router.getBytesPerSecond();
+
+        SampleBuffer replayed = new SampleBuffer(10);
+        for (int i = 0; i < 10; i++)
+            replayed.add(databaseTime + i, 0, 0, 0);
+        assertEquals(StorageRouter.Route.DATABASE, router.routeReplayed(replayed));
+        assertEquals(rate, router.getBytesPerSecond(), 0);
+        assertEquals(2, router.getSegments().size());
+        // The measurement window was not restarted by the old timestamps
+        assertEquals(StorageRouter.Route.HIGH_FREQUENCY, feed(router, 100, 5));
+        assertTrue(router.getBytesPerSecond() > 1600);
+    }
+
+    @Test
+    public void keepsSegmentsAcrossSessions() throws Exception {
+        File file = File.createTempFile("route", ".bin");
+        try {
+            StorageRouter router = new StorageRouter("TEST", 3, 1600, 800, 30000);
+            router.open(file);
+            feed(router, 10, 60);
+            long databaseEnd = timestamp - 1000;
+            feed(router, 100, 40);
+            long end = timestamp;
+
+            router = new StorageRouter("TEST", 3, 1600, 800, 30000);
+            router.open(file);
+            ArrayList<StorageRouter.Segment> segments = router.getSegments();
+            assertEquals(2, segments.size());
+            assertEquals(StorageRouter.Route.DATABASE, segments.get(0).getRoute());
+            assertEquals(1000000, segments.get(0).getStart());
+            assertEquals(StorageRouter.Route.DATABASE, router.getRoute(1000000, databaseEnd));
+            assertEquals(StorageRouter.Route.HIGH_FREQUENCY, router.getRoute(end - 5000, end));
+            assertNull(router.getRoute(databaseEnd - 1000, end));
+
+            timestamp += 600000;
+            feed(router, 10, 10);
+            segments = router.getSegments();
+            assertEquals(3, segments.size());
+            assertTrue(segments.get(1).getEnd() < segments.get(2).getStart());
+            assertNull(router.getRoute(end, timestamp));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>SubscriptionHub</code>.
+ */
+public class SubscriptionHubTest {
+    private static final int ITEMS = 200000;
+
+    @Test
+    public void slowConsumerDoesNotHoldBackProducerOrOthers() throws Exception {
+        SubscriptionHub<Long> hub = new SubscriptionHub<>(64);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        final long[] fastState = {-1, 0}; // last item, out of order count
+        SubscriptionHub.Subscription<Long> fast = hub.subscribe("fast", SubscriptionHub.Policy.DROP_OLDEST,
+                new SubscriptionHub.Consumer<Long>() {
+            @Override
+            public void onReceived(Long item) {
+                if (item <= fastState[0])
+                    fastState[1]++;
+                fastState[0] = item;
+                if (item == ITEMS - 1)
+                    fastDone.countDown();
+            }
+        });
+        final long[] slowLast = {-1};
+        final CountDownLatch slowDone = new CountDownLatch(1);
+        SubscriptionHub.Subscription<Long> slow = hub.subscribe("slow", SubscriptionHub.Policy.CONFLATE,
+                new SubscriptionHub.Consumer<Long>() {
+            @Override
+            public void onReceived(Long item) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                slowLast[0] = item;
+                if (item == ITEMS - 1)
+                    slowDone.countDown();
+            }
+        });
+        for (long i = 0; i < ITEMS; i++) {
+            hub.publish(i);
+            if (i % 1000 == 0)
+                Thread.yield();
+        }
+        // The producer finished while the slow consumer is still blocked in its first item
+        assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+        assertEquals(ITEMS - 1, fastState[0]);
+        assertEquals(0, fastState[1]);
+        release.countDown();
+        assertTrue(slowDone.await(10, TimeUnit.SECONDS));
+        assertEquals(ITEMS - 1, slowLast[0]);
+        assertTrue(slow.getDroppedCount() >= ITEMS - 64);
+        hub.close();
+        assertTrue(fast.getDroppedCount() < ITEMS);
+    }
+}
@@ -0,0 +1,233 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.exception.DataKitException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>TimeRangeQueryService</code>.
+ */
+public class TimeRangeQueryServiceTest {
+    private static final long CHUNK = 1000;
+    private static final long BASE = 1000000; // far in the past, so every chunk is complete
+
+    /**
+     * Serves one sample every 100 milliseconds up to the current time and records the start of
+     * every fetch.
+     */
+    private static class TickSource implements TimeRangeQueryService.ChunkSource {
+        final List<Long> fetchStarts = Collections.synchronizedList(new ArrayList<Long>());
+
+        @Override
+        public ArrayList<DataType> fetch(String type, long startTimestamp, long endTimestamp) {
+            fetchStarts.add(startTimestamp);
+            long last = Math.min(endTimestamp, System.currentTimeMillis());
+            ArrayList<DataType> samples = new ArrayList<>();
+            for (long t = (startTimestamp + 99) / 100 * 100; t <= last; t += 100)
+                samples.add(new DataTypeDoubleArray(t, new double[]{t % 1000}));
+            return samples;
+        }
+    }
+
+    private static void assertTicks(ColumnarResult result, long start, long end) {
+        long expected = (start + 99) / 100 * 100;
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(expected, result.getTimestamp(i));
+            assertEquals(expected % 1000, result.get(i, 0), 0);
+            expected += 100;
+        }
+        assertTrue("samples missing before " + end, expected > end - 100);
+    }
+
+    @Test
+    public void fetchesEachChunkOnce() throws Exception {
+        TickSource source = new TickSource();
+        TimeRangeQueryService service = new TimeRangeQueryService(source, CHUNK, 0, 1000, 3);
+        ColumnarResult result = service.query("ACC", BASE + 500, BASE + 3500);
+        assertTicks(result, BASE + 500, BASE + 3500);
+        assertEquals(4, service.getFetchCount());
+        assertEquals(40, service.getCachedSamples());
+
+        assertTicks(service.query("ACC", BASE + 1000, BASE + 2999), BASE + 1000, BASE + 2999);
+        assertEquals(4, service.getFetchCount());
+        assertTicks(service.query("ACC", BASE + 3000, BASE + 4500), BASE + 3000, BASE + 4500);
+        assertEquals(5, service.getFetchCount());
+        assertEquals(0, service.query("GYRO", BASE, BASE - 1).size());
+        service.shutdown();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedChunks() throws Exception {
+        TickSource source = new TickSource();
+        TimeRangeQueryService service = new TimeRangeQueryService(source, CHUNK, 0, 30, 2);
+        // One chunk at a time, since chunks fetched together are cached in the order they arrive
+        for (long start = BASE; start < BASE + 3000; start += CHUNK)
+            service.query("ACC", start, start + CHUNK - 1);
+        service.query("ACC", BASE, BASE + 999); // now the most recently used chunk
+        service.query("ACC", BASE + 3000, BASE + 3999);
+        assertEquals(30, service.getCachedSamples());
+        int fetches = service.getFetchCount();
+        service.query("ACC", BASE, BASE + 999);
+        assertEquals(fetches, service.getFetchCount());
+        service.query("ACC", BASE + 1000, BASE + 1999);
+        assertEquals(fetches + 1, service.getFetchCount());
+        service.shutdown();
+    }
+
+    @Test
+    public void invalidateRefetchesOneChunk() throws Exception {
+        TickSource source = new TickSource();
+        TimeRangeQueryService service = new TimeRangeQueryService(source, CHUNK, 0, 1000, 2);
+        service.query("ACC", BASE, BASE + 2999);
+        service.invalidate("ACC", BASE + 1500);
+        assertEquals(20, service.getCachedSamples());
+        assertTicks(service.query("ACC", BASE, BASE + 2999), BASE, BASE + 2999);
+        assertEquals(4, service.getFetchCount());
+        assertEquals(BASE + 1000, (long) source.fetchStarts.get(3));
+        service.shutdown();
+    }
+
+    @Test
+    public void replayIntoASettledChunkIsSeen() throws Exception {
+        final List<DataType> stored = new ArrayList<>();
+        for (long t = BASE; t < BASE + CHUNK; t += 100)
+            if (t != BASE + 500)
+                stored.add(new DataTypeDoubleArray(t, new double[]{t % 1000}));
+        final TimeRangeQueryService service = new TimeRangeQueryService(
+                new TimeRangeQueryService.ChunkSource() {
+            @Override
+            public ArrayList<DataType> fetch(String type, long startTimestamp, long endTimestamp) {
+                ArrayList<DataType> samples = new ArrayList<>();
+                synchronized (stored) {
+                    for (DataType sample : stored)
+                        if (sample.getDateTime() >= startTimestamp && sample.getDateTime() <= endTimestamp)
+                            samples.add(sample);
+                }
+                Collections.sort(samples, new Comparator<DataType>() {
+                    @Override
+                    public int compare(DataType a, DataType b) {
+                        return Long.compare(a.getDateTime(), b.getDateTime());
+                    }
+                });
+                return samples;
+            }
+        }, CHUNK, 0, 1000, 1);
+        assertEquals(9, service.query("ACC", BASE, BASE + CHUNK - 1).size());
+
+        // The missing sample is spooled while DataKit is away and replayed after the chunk settled
+        final AtomicBoolean available = new AtomicBoolean(false);
+        InsertPipeline pipeline = new InsertPipeline(new InsertPipeline.Sink() {
+            @Override
+            public void insert(SampleBuffer batch) throws DataKitException {
+                if (!available.get())
+                    throw new DataKitException("DataKit is not connected");
+                synchronized (stored) {
+                    for (int i = 0; i < batch.size(); i++)
+                        stored.add(new DataTypeDoubleArray(batch.getTimestamp(i), new double[]{batch.getX(i)}));
+                }
+            }
+        }, 100, 10, 10000, InsertPipeline.BackpressurePolicy.BLOCK);
+        File file = File.createTempFile("spool", ".bin");
+        assertTrue(file.delete());
+        try {
+            pipeline.setSpool(new SampleSpool(file, 100));
+            pipeline.setOnReplayedListener(new InsertPipeline.OnReplayedListener() {
+                @Override
+                public void onReplayed(long firstTimestamp, long lastTimestamp) {
+                    service.invalidate("ACC", firstTimestamp, lastTimestamp);
+                }
+            });
+            pipeline.offer(BASE + 500, 500, 0, 0);
+            pipeline.flush();
+            assertEquals(1, pipeline.getSpool().size());
+            assertEquals(9, service.query("ACC", BASE, BASE + CHUNK - 1).size());
+            assertEquals(1, service.getFetchCount());
+
+            available.set(true);
+            pipeline.requestReplay();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!pipeline.getSpool().isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            pipeline.close();
+        } finally {
+            file.delete();
+        }
+        assertTicks(service.query("ACC", BASE, BASE + CHUNK - 1), BASE, BASE + CHUNK - 1);
+        assertEquals(2, service.getFetchCount());
+        service.shutdown();
+    }
+
+    @Test
+    public void extendsOnlyTheNewestChunk() throws Exception {
+        TickSource source = new TickSource();
+        TimeRangeQueryService service = new TimeRangeQueryService(source, CHUNK, 0, 1000, 2);
+        long now = System.currentTimeMillis();
+        service.query("ACC", now - 3000, now + CHUNK);
+        int fetches = service.getFetchCount();
+        Thread.sleep(250);
+        long later = System.currentTimeMillis();
+        ColumnarResult result = service.query("ACC", now - 3000, later);
+        assertTicks(result, now - 3000, later);
+        // Only the chunks that were not complete are fetched again, from where they had settled
+        int refetched = service.getFetchCount() - fetches;
+        assertTrue("refetched " + refetched, refetched >= 1 && refetched <= 2);
+        for (long start : source.fetchStarts.subList(fetches, source.fetchStarts.size()))
+            assertTrue("refetched from " + (start - now), start > now);
+        service.shutdown();
+    }
+
+    @Test
+    public void clearDuringFetchDoesNotCacheTheOldChunk() throws Exception {
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch cleared = new CountDownLatch(1);
+        final TickSource ticks = new TickSource();
+        final TimeRangeQueryService service = new TimeRangeQueryService(
+                new TimeRangeQueryService.ChunkSource() {
+            @Override
+            public ArrayList<DataType> fetch(String type, long startTimestamp, long endTimestamp) {
+                ArrayList<DataType> samples = ticks.fetch(type, startTimestamp, endTimestamp);
+                fetching.countDown();
+                try {
+                    cleared.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return samples;
+            }
+        }, CHUNK, 0, 1000, 1);
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Future<ColumnarResult> running = reader.submit(new Callable<ColumnarResult>() {
+            @Override
+            public ColumnarResult call() throws Exception {
+                return service.query("ACC", BASE, BASE + 999);
+            }
+        });
+        fetching.await();
+        service.clear();
+        cleared.countDown();
+        assertEquals(10, running.get().size());
+        assertEquals(0, service.getCachedSamples());
+
+        service.query("ACC", BASE, BASE + 999);
+        assertEquals(2, service.getFetchCount());
+        assertEquals(10, service.getCachedSamples());
+        reader.shutdown();
+        service.shutdown();
+    }
+}
@@ -0,0 +1,96 @@
+package org.md2k.demoapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for <code>Timebase</code>.
+ */
+public class TimebaseTest {
+    private static final long EPOCH = 1500000000000L;
+    private static final long SECOND = 1000000000L;
+
+    /**
+     * Elapsed realtime set by the test and a wall clock that runs <code>drift</code> faster.
+     */
+    private static class FakeClock implements Timebase.Clock {
+        long elapsedNanos = 42 * SECOND;
+        double drift;
+        long wallOffsetMillis = EPOCH;
+        int wallReads;
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            wallReads++;
+            return wallOffsetMillis + (long) Math.floor(elapsedNanos * (1 + drift) / 1e6);
+        }
+
+        long wallAt(long nanos) {
+            return wallOffsetMillis + (long) Math.floor(nanos * (1 + drift) / 1e6);
+        }
+    }
+
+    @Test
+    public void convertsSensorTimestamps() {
+        FakeClock clock = new FakeClock();
+        Timebase timebase = new Timebase(clock, 60000);
+        assertEquals(clock.wallAt(clock.elapsedNanos), timebase.toEpochMillis(clock.elapsedNanos), 1);
+        // Samples from a sensor FIFO are older than the calibration
+        long older = clock.elapsedNanos - 3 * SECOND + 250000000;
+        assertEquals(clock.wallAt(older), timebase.toEpochMillis(older), 1);
+        assertEquals(EPOCH, timebase.getOffsetMillis(), 1);
+    }
+
+    @Test
+    public void followsDriftBetweenCalibrations() {
+        FakeClock clock = new FakeClock();
+        clock.drift = 200e-6;
+        Timebase timebase = new Timebase(clock, 60000);
+        for (int i = 0; i < 20; i++) {
+            clock.elapsedNanos += 61 * SECOND;
+            timebase.toEpochMillis(clock.elapsedNanos); // past the interval, so it recalibrates
+        }
+        assertEquals(200, timebase.getDriftPpm(), 20);
+        // Halfway to the next calibration the prediction still matches the wall clock
+        long later = clock.elapsedNanos + 30 * SECOND;
+        assertEquals(clock.wallAt(later), timebase.toEpochMillis(later), 2);
+    }
+
+    @Test
+    public void wallClockStepRestartsEstimate() {
+        FakeClock clock = new FakeClock();
+        clock.drift = 100e-6;
+        Timebase timebase = new Timebase(clock, 60000);
+        clock.elapsedNanos += 61 * SECOND;
+        timebase.toEpochMillis(clock.elapsedNanos);
+        assertTrue(timebase.getDriftPpm() > 0);
+
+        clock.wallOffsetMillis += 3600000; // the user sets the clock an hour ahead
+        clock.elapsedNanos += 61 * SECOND;
+        long now = clock.elapsedNanos;
+        assertEquals(clock.wallAt(now), timebase.toEpochMillis(now), 1);
+        assertEquals(0, timebase.getDriftPpm(), 0);
+    }
+
+    @Test
+    public void timestampsAheadOfTheClockDoNotRecalibrateEverySample() {
+        FakeClock clock = new FakeClock();
+        Timebase timebase = new Timebase(clock, 60000);
+        int reads = clock.wallReads;
+        long ahead = clock.elapsedNanos + 120 * SECOND;
+        for (int i = 0; i < 1000; i++)
+            timebase.toEpochMillis(ahead + i * 10000000L);
+        assertEquals(reads, clock.wallReads);
+
+        // Once the clock has passed the interval as well, it is measured again
+        clock.elapsedNanos += 61 * SECOND;
+        timebase.toEpochMillis(ahead + 70 * SECOND);
+        assertTrue(clock.wallReads > reads);
+    }
+}
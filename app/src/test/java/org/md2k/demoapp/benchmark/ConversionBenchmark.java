@@ -0,0 +1,43 @@
+package org.md2k.demoapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.md2k.demoapp.DataKitSink;
+import org.md2k.demoapp.SampleBuffer;
+
+/**
+ * Cost per sample of turning a decimated sample into the <code>DataType</code> DataKit stores,
+ * which is the only allocating step of the insert path.
+ */
+@State(Scope.Thread)
+public class ConversionBenchmark {
+    private static final int BATCH = 50;
+    private final SampleBuffer batch = new SampleBuffer(BATCH);
+
+    @Setup
+    public void fill() {
+        for (int i = 0; i < BATCH; i++)
+            batch.add(1500000000000L + 10 * i, Math.sin(i), Math.cos(i), 9.81);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void toDataType(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++)
+            blackhole.consume(DataKitSink.toDataType(batch, i, 3));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void copyToBuffer(Blackhole blackhole) {
+        SampleBuffer copy = new SampleBuffer(BATCH);
+        for (int i = 0; i < BATCH; i++)
+            copy.add(batch.getTimestamp(i), batch.getX(i), batch.getY(i), batch.getZ(i));
+        blackhole.consume(copy);
+    }
+}
@@ -0,0 +1,44 @@
+package org.md2k.demoapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.md2k.demoapp.Decimator;
+
+/**
+ * Cost per sensor event of reducing a 200 Hz stream to 25 Hz with each filter.
+ */
+@State(Scope.Thread)
+public class DecimatorBenchmark {
+    private static final long INPUT_INTERVAL = 5000000; // 200 Hz in nanoseconds
+
+    @Param({"NONE", "AVERAGE", "FIR"})
+    public Decimator.Filter filter;
+
+    private Decimator decimator;
+    private Blackhole blackhole;
+    private long timestamp;
+    private int i;
+
+    @Setup
+    public void create(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        decimator = new Decimator(25, filter, new Decimator.Output() {
+            @Override
+            public void onSample(long timestampNanos, double x, double y, double z) {
+                DecimatorBenchmark.this.blackhole.consume(x + y + z);
+            }
+        });
+    }
+
+    @Benchmark
+    public void process() {
+        timestamp += INPUT_INTERVAL + (i & 7) * 10000;
+        i++;
+        decimator.process(timestamp, Math.sin(i * 0.01), 0.5, 9.81);
+    }
+}
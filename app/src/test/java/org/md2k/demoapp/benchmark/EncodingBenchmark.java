@@ -0,0 +1,76 @@
+package org.md2k.demoapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.md2k.demoapp.SampleBlockEncoder;
+import org.md2k.demoapp.SampleBuffer;
+
+/**
+ * Cost per sample of storing a 100 Hz three axis stream, comparing the block encodings with the
+ * gzipped CSV that <code>insertHighFrequency()</code> ends up writing.
+ */
+@State(Scope.Thread)
+public class EncodingBenchmark {
+    private static final int SAMPLES = 1000;
+
+    @Param({"XOR", "QUANTIZED"})
+    public SampleBlockEncoder.Mode mode;
+
+    private final SampleBuffer samples = new SampleBuffer(SAMPLES);
+    private SampleBlockEncoder encoder;
+    private Blackhole blackhole;
+
+    @Setup
+    public void create(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        Random random = new Random(7);
+        for (int i = 0; i < SAMPLES; i++)
+            samples.add(1500000000000L + 10 * i, Math.sin(i / 20.0) + random.nextGaussian() * 0.01,
+                    Math.cos(i / 20.0), 1 + random.nextGaussian() * 0.01);
+        encoder = new SampleBlockEncoder(4096, 3, mode, 0.0001, new SampleBlockEncoder.BlockListener() {
+            @Override
+            public void onBlock(byte[] block, int length, long firstTimestamp, int count) {
+                EncodingBenchmark.this.blackhole.consume(length);
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void encodeBlocks() {
+        encoder.add(samples);
+        encoder.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int csvGzip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), "UTF-8");
+        for (int i = 0; i < SAMPLES; i++) {
+            writer.write(Long.toString(samples.getTimestamp(i)));
+            writer.write(',');
+            writer.write(Double.toString(samples.getX(i)));
+            writer.write(',');
+            writer.write(Double.toString(samples.getY(i)));
+            writer.write(',');
+            writer.write(Double.toString(samples.getZ(i)));
+            writer.write('\n');
+        }
+        writer.close();
+        return bytes.size();
+    }
+}
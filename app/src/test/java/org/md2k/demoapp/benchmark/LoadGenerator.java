@@ -0,0 +1,101 @@
+package org.md2k.demoapp.benchmark;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import org.md2k.demoapp.CaptureStream;
+import org.md2k.demoapp.Decimator;
+import org.md2k.demoapp.PipelineMetrics;
+import org.md2k.demoapp.StreamConfig;
+import org.md2k.demoapp.SyntheticSampleSource;
+import org.md2k.demoapp.Timebase;
+
+/**
+ * Load test of the capture path on the JVM. For each rate, several streams are driven by
+ * <code>SyntheticSampleSource</code>s in real time through <code>CaptureStream</code> and its
+ * <code>InsertPipeline</code> into <code>LocalDataKit</code>s. Every sample is stored, so the
+ * decimators pass samples through. A rate saturates when samples are dropped or the sources can not
+ * keep up.
+ * <pre>
+ *   ./gradlew :app:loadTest -Pload="--rates 100,1000,5000 --streams 4 --seconds 10 --insert-cost-us 20"
+ * </pre>
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        String rates = "100,500,1000,2000,5000";
+        int streams = 4;
+        int seconds = 5;
+        long insertCostNanos = 20000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--rates":
+                    rates = args[i + 1];
+                    break;
+                case "--streams":
+                    streams = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--insert-cost-us":
+                    insertCostNanos = Long.parseLong(args[i + 1]) * 1000;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        System.out.println("rate Hz  streams  delivered  inserted  dropped  p50 ms  p99 ms  max ms");
+        for (String rate : rates.split(",")) {
+            boolean saturated = run(Double.parseDouble(rate), streams, seconds, insertCostNanos);
+            if (saturated) {
+                System.out.println("saturated at " + rate + " Hz per stream");
+                return;
+            }
+        }
+        System.out.println("not saturated");
+    }
+
+    /**
+     * @return Whether samples were lost or the sources fell behind.
+     */
+    static boolean run(double rate, int count, int seconds, long insertCostNanos) throws InterruptedException {
+        ArrayList<CaptureStream> streams = new ArrayList<>();
+        ArrayList<SyntheticSampleSource> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CaptureStream stream = new CaptureStream(new StreamConfig(0, "LOAD_" + i, 3, 1, rate,
+                    Decimator.Filter.NONE));
+            LocalDataKit dataKit = new LocalDataKit(3, 100000);
+            dataKit.setInsertCostNanos(insertCostNanos);
+            // Sources are timestamped with System.nanoTime()
+            stream.start(dataKit, null, new Timebase(Timebase.JVM_CLOCK, 60000), null);
+            SyntheticSampleSource source = new SyntheticSampleSource(
+                    SyntheticSampleSource.Waveform.SINE, rate, 1, 9.81, 3, i);
+            streams.add(stream);
+            sources.add(source);
+        }
+        for (int i = 0; i < count; i++)
+            sources.get(i).start(streams.get(i));
+        Thread.sleep(seconds * 1000L);
+
+        long expected = (long) (rate * seconds) * count;
+        long delivered = 0;
+        long inserted = 0;
+        long dropped = 0;
+        long p50 = 0, p99 = 0, max = 0;
+        for (int i = 0; i < count; i++) {
+            sources.get(i).stop();
+            delivered += sources.get(i).getDeliveredCount();
+            streams.get(i).stop().close();
+            PipelineMetrics.Snapshot snapshot = streams.get(i).getMetrics().snapshot();
+            inserted += snapshot.getInserted();
+            dropped += snapshot.getDropped();
+            p50 = Math.max(p50, snapshot.getLatency().getValueAtPercentile(50));
+            p99 = Math.max(p99, snapshot.getLatency().getValueAtPercentile(99));
+            max = Math.max(max, snapshot.getLatency().getMax());
+        }
+        System.out.println(String.format(Locale.US, "%7.0f  %7d  %9d  %8d  %7d  %6d  %6d  %6d",
+                rate, count, delivered, inserted, dropped, p50, p99, max));
+        return dropped > 0 || delivered < expected * 95 / 100;
+    }
+}
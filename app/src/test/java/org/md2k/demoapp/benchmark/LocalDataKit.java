@@ -0,0 +1,63 @@
+package org.md2k.demoapp.benchmark;
+
+import java.util.ArrayList;
+
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.demoapp.DataKitSink;
+import org.md2k.demoapp.InsertPipeline;
+import org.md2k.demoapp.SampleBuffer;
+
+/**
+ * In memory stand-in for <code>DataKitAPI</code> so the insert path can be measured on the JVM.
+ * Batches are converted exactly as <code>DataKitSink</code> converts them and kept in a list that
+ * is cleared when it reaches <code>capacity</code>, so long runs do not exhaust the heap. An
+ * optional busy wait per sample stands in for the cost of the call into the DataKit service.
+ */
+public class LocalDataKit implements InsertPipeline.Sink {
+    private final int dimension;
+    private final int capacity;
+    private final ArrayList<DataType> stored;
+    private long insertedTotal;
+    private volatile long insertCostNanos = 0;
+
+    public LocalDataKit(int dimension, int capacity) {
+        this.dimension = dimension;
+        this.capacity = capacity;
+        stored = new ArrayList<>(capacity);
+    }
+
+    /**
+     * @param insertCostNanos Time each sample takes to insert.
+     */
+    public void setInsertCostNanos(long insertCostNanos) {
+        this.insertCostNanos = insertCostNanos;
+    }
+
+    @Override
+    public synchronized void insert(SampleBuffer batch) {
+        long cost = insertCostNanos;
+        for (int i = 0; i < batch.size(); i++) {
+            if (stored.size() == capacity)
+                stored.clear();
+            stored.add(DataKitSink.toDataType(batch, i, dimension));
+            if (cost > 0) {
+                long until = System.nanoTime() + cost;
+                while (System.nanoTime() < until)
+                    ; // busy wait like a blocking IPC call
+            }
+        }
+        insertedTotal += batch.size();
+    }
+
+    /**
+     * @return The newest <code>n</code> stored samples, like <code>DataKitAPI.query(client, n)</code>.
+     */
+    public synchronized ArrayList<DataType> query(int n) {
+        int from = Math.max(0, stored.size() - n);
+        return new ArrayList<>(stored.subList(from, stored.size()));
+    }
+
+    public synchronized long getInsertedCount() {
+        return insertedTotal;
+    }
+}
@@ -0,0 +1,41 @@
+package org.md2k.demoapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.md2k.demoapp.InsertPipeline;
+
+/**
+ * Sustained rate of <code>InsertPipeline.offer()</code> when the worker thread converts and stores
+ * every batch in a <code>LocalDataKit</code>. The pipeline blocks when full, so the score is the
+ * end to end batching throughput rather than the rate of dropping samples.
+ */
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+    @Param({"1", "50", "500"})
+    public int batchSize;
+
+    private InsertPipeline pipeline;
+    private long timestamp;
+
+    @Setup
+    public void start() {
+        pipeline = new InsertPipeline(new LocalDataKit(3, 100000), 1024, batchSize, 1000,
+                InsertPipeline.BackpressurePolicy.BLOCK);
+    }
+
+    @TearDown
+    public void stop() {
+        pipeline.close();
+    }
+
+    @Benchmark
+    public void offer() {
+        timestamp += 10;
+        pipeline.offer(timestamp, 0.1, 0.2, 9.81);
+    }
+}
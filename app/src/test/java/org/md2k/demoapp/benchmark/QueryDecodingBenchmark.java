@@ -0,0 +1,110 @@
+package org.md2k.demoapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.demoapp.ColumnarResult;
+import org.md2k.demoapp.SampleBlockDecoder;
+import org.md2k.demoapp.SampleBlockEncoder;
+import org.md2k.demoapp.SampleBuffer;
+import org.md2k.demoapp.SampleFormatter;
+
+/**
+ * Cost per sample of reading back a query result: printing a <code>DataType</code> list the way
+ * <code>MainActivity.printQuery()</code> used to, printing it with <code>SampleFormatter</code>,
+ * decoding an encoded block, and aggregating by row and by column.
+ */
+@State(Scope.Thread)
+public class QueryDecodingBenchmark {
+    private static final int SAMPLES = 1000;
+
+    private ArrayList<DataType> rows;
+    private ColumnarResult columns;
+    private byte[] block;
+    private final SampleBuffer decoded = new SampleBuffer(SAMPLES);
+    private final char[] text = new char[SAMPLES * (SampleFormatter.MAX_SAMPLE_LENGTH + 1)];
+
+    @Setup
+    public void fill() {
+        LocalDataKit dataKit = new LocalDataKit(3, SAMPLES);
+        SampleBuffer samples = new SampleBuffer(SAMPLES);
+        for (int i = 0; i < SAMPLES; i++)
+            samples.add(1500000000000L + 10 * i, Math.sin(i / 20.0), Math.cos(i / 20.0), 1);
+        dataKit.insert(samples);
+        rows = dataKit.query(SAMPLES);
+        columns = ColumnarResult.fromDataTypes(rows);
+        SampleBlockEncoder encoder = new SampleBlockEncoder(65536, 3, SampleBlockEncoder.Mode.XOR, 0,
+                new SampleBlockEncoder.BlockListener() {
+                    @Override
+                    public void onBlock(byte[] encoded, int length, long firstTimestamp, int count) {
+                        block = new byte[length];
+                        System.arraycopy(encoded, 0, block, 0, length);
+                    }
+                });
+        encoder.add(samples);
+        encoder.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public String printWithConcatenation() {
+        StringBuilder message = new StringBuilder();
+        for (DataType data : rows) {
+            if (data instanceof DataTypeDoubleArray) {
+                double[] sample = ((DataTypeDoubleArray) data).getSample();
+                message.append("[" + sample[0] + ", " + sample[1] + ", " + sample[2] + "]\n");
+            }
+        }
+        return message.toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int printWithFormatter() {
+        int position = 0;
+        for (DataType data : rows) {
+            if (data instanceof DataTypeDoubleArray) {
+                double[] sample = ((DataTypeDoubleArray) data).getSample();
+                position = SampleFormatter.appendSample(text, position, sample[0], sample[1], sample[2]);
+                text[position++] = '\n';
+            }
+        }
+        return position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public ColumnarResult convertToColumns() {
+        return ColumnarResult.fromDataTypes(rows);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double meanOfRows() {
+        double sum = 0;
+        for (DataType data : rows)
+            if (data instanceof DataTypeDoubleArray)
+                sum += ((DataTypeDoubleArray) data).getSample()[0];
+        return sum / rows.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double meanOfColumn() {
+        return columns.mean(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int decodeBlock() {
+        decoded.clear();
+        return SampleBlockDecoder.decode(block, decoded);
+    }
+}